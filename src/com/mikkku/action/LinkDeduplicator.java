@@ -0,0 +1,182 @@
+package com.mikkku.action;
+
+import com.mikkku.concurrent.StageExecutor;
+import com.mikkku.scanner.ContentVerifier;
+import com.mikkku.scanner.DuplicateGroup;
+import com.mikkku.scanner.ScanListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把重复文件替换为组内第一个文件的硬链接或reflink（写时复制的共享数据块），释放磁盘空间。
+ * 先在同一目录下创建临时链接，再原子地重命名覆盖重复文件，任何一步失败都不会丢失文件。
+ * 创建链接前和重命名前都会重新检查两个文件的大小和修改时间，计算哈希后被修改过的文件不会被替换。
+ * 重复组只由摘要确定时（没有--verify，CRC32C等较短的摘要可能碰撞），创建链接前先逐字节比较两个文件，内容不同时跳过。
+ * 注意硬链接共享同一个inode，替换后重复文件的权限、所有者等属性与保留的文件相同。
+ * JDK没有FICLONE的接口，reflink每个文件启动一次cp，进程的开销远小于此前计算哈希读取整个文件的开销。
+ */
+public class LinkDeduplicator implements ScanListener {
+
+    public enum Mode {
+        //硬链接，要求在同一文件系统上
+        HARDLINK,
+        //通过cp --reflink=always调用FICLONE，要求文件系统支持（如Btrfs、XFS）
+        REFLINK,
+        //优先reflink，不支持时使用硬链接
+        AUTO
+    }
+
+    private static final String TEMP_SUFFIX = ".dedup-";
+    //cp无法克隆时（EOPNOTSUPP、EXDEV）输出的错误信息，其他错误不代表文件系统不支持reflink
+    private static final List<String> UNSUPPORTED = Arrays.asList("Operation not supported", "Invalid cross-device link");
+
+    private final Mode mode;
+    private final ContentVerifier verifier;
+    private final StageExecutor linkStage;
+    private final AtomicInteger linkedCount = new AtomicInteger();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private final AtomicInteger failCount = new AtomicInteger();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    //按文件系统记录是否支持reflink，同一次扫描可能涉及多个文件系统
+    private final ConcurrentHashMap<FileStore, Boolean> reflinkSupported = new ConcurrentHashMap<>();
+
+    //verified为true表示重复组已逐字节确认过，替换前不再比较
+    public LinkDeduplicator(Mode mode, boolean verified, int threads, int capacity) {
+        if (mode == null)
+            throw new NullPointerException("The mode must not be null!");
+        this.mode = mode;
+        verifier = verified ? null : new ContentVerifier();
+        linkStage = StageExecutor.pooled("link", threads, capacity);
+    }
+
+    //每个重复文件一个任务，队列满时阻塞扫描线程
+    @Override
+    public void onGroup(DuplicateGroup group) {
+        List<Path> files = group.getFiles();
+        for (int i = 1; i < files.size(); i++) {
+            int index = i;
+            linkStage.execute(() -> replace(group, index));
+        }
+    }
+
+    //等待所有替换完成
+    public void await() throws InterruptedException {
+        linkStage.shutdown();
+        linkStage.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+
+    public int getLinkedCount() {
+        return linkedCount.get();
+    }
+
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public int getFailCount() {
+        return failCount.get();
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    private void replace(DuplicateGroup group, int index) {
+        Path source = group.getFiles().get(0), target = group.getFiles().get(index);
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        try {
+            //1.两个文件都未被修改且还不是同一个文件时才替换
+            if (!unchanged(group, 0) || !unchanged(group, index) || Files.isSameFile(source, target)) {
+                skippedCount.addAndGet(1);
+                return;
+            }
+            //摘要碰撞的文件内容不同，替换会丢失数据
+            if (verifier != null && verifier.verify(Arrays.asList(source, target)).isEmpty()) {
+                skippedCount.addAndGet(1);
+                System.err.println("内容不同，跳过：" + target);
+                return;
+            }
+            //2.在重复文件所在目录创建临时链接，重命名时才能保证原子性
+            link(source, temp);
+            try {
+                //3.重命名前再检查一次，缩小检查与替换之间的时间窗口
+                if (!unchanged(group, 0) || !unchanged(group, index)) {
+                    skippedCount.addAndGet(1);
+                    return;
+                }
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            linkedCount.addAndGet(1);
+            reclaimedBytes.addAndGet(group.getSize());
+        } catch (IOException e) {
+            failCount.addAndGet(1);
+            System.err.println("替换失败：" + target);
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            failCount.addAndGet(1);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean unchanged(DuplicateGroup group, int index) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(group.getFiles().get(index), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return attributes.isRegularFile() && attributes.size() == group.getSize()
+                && attributes.lastModifiedTime().toMillis() == group.getModifiedTime(index);
+    }
+
+    private void link(Path source, Path temp) throws IOException, InterruptedException {
+        if (mode != Mode.HARDLINK) {
+            FileStore store = Files.getFileStore(temp.getParent());
+            if (reflinkSupported.getOrDefault(store, true)) {
+                if (reflink(source, temp)) return;
+                if (mode == Mode.REFLINK)
+                    throw new IOException("The reflink is not supported: " + source);
+                //该文件系统不支持reflink，之后其中的文件直接使用硬链接
+                reflinkSupported.put(store, false);
+            }
+        }
+        Files.createLink(temp, source);
+    }
+
+    //返回false表示文件系统不支持reflink，其他原因的失败抛出异常
+    private static boolean reflink(Path source, Path temp) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder("cp", "--reflink=always", "--preserve=all", "--", source.toString(), temp.toString())
+                .redirectErrorStream(true);
+        //按错误信息判断失败原因，不能是本地化的信息
+        builder.environment().put("LC_ALL", "C");
+        Process process = builder.start();
+        String output = read(process.getInputStream());
+        if (process.waitFor() == 0) return true;
+        Files.deleteIfExists(temp);
+        for (String message : UNSUPPORTED) if (output.contains(message)) return false;
+        throw new IOException("The reflink is failed: " + output.trim());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int len; (len = in.read(buffer)) != -1; ) out.write(buffer, 0, len);
+        return new String(out.toByteArray(), Charset.defaultCharset());
+    }
+
+}
@@ -3,6 +3,10 @@ package com.mikkku.concurrent;
 import java.util.Random;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * @deprecated 满时会一直空转，取出时每次从头扫描，计数没有可见性保证，所有操作共用一把锁，
+ * 使用{@link RingBuffer}代替。
+ */
 @Deprecated
 public class ConcurrentArray<T> {
 
@@ -0,0 +1,66 @@
+package com.mikkku.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * 可跨线程归还的对象池：池空时新建对象，归还时超出容量的对象直接丢弃，
+ * 因此获取不会阻塞，稳定运行后不再产生新的分配。
+ * bounded创建的池最多同时借出capacity个对象，全部借出时acquire阻塞到有对象归还，用于限制直接内存等资源的占用。
+ */
+public class ObjectPool<T> {
+
+    private final ArrayBlockingQueue<T> idle;
+    private final Supplier<T> factory;
+    //有界池可借出的对象数，无界池为null
+    private final Semaphore permits;
+
+    public ObjectPool(int capacity, Supplier<T> factory) {
+        this(capacity, factory, false);
+    }
+
+    private ObjectPool(int capacity, Supplier<T> factory, boolean bounded) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must is positive integer!");
+        idle = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+        permits = bounded ? new Semaphore(capacity) : null;
+    }
+
+    public static <T> ObjectPool<T> bounded(int capacity, Supplier<T> factory) {
+        return new ObjectPool<>(capacity, factory, true);
+    }
+
+    public T acquire() {
+        if (permits != null) permits.acquireUninterruptibly();
+        return take();
+    }
+
+    //有界池的对象已全部借出时立即返回null，无界池与acquire相同
+    public T tryAcquire() {
+        if (permits != null && !permits.tryAcquire()) return null;
+        return take();
+    }
+
+    public void release(T element) {
+        idle.offer(element);
+        if (permits != null) permits.release();
+    }
+
+    public int size() {
+        return idle.size();
+    }
+
+    private T take() {
+        T element = idle.poll();
+        if (element != null) return element;
+        try {
+            return factory.get();
+        } catch (RuntimeException | Error e) {
+            if (permits != null) permits.release();
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+package com.mikkku.concurrent;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+//生产者和消费者的位置分别独占缓存行，避免互相使对方的缓存失效
+abstract class RingBufferPad0<E> extends AbstractQueue<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class RingBufferProducerIndex<E> extends RingBufferPad0<E> {
+    volatile long producerIndex;
+}
+
+abstract class RingBufferPad1<E> extends RingBufferProducerIndex<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class RingBufferConsumerIndex<E> extends RingBufferPad1<E> {
+    volatile long consumerIndex;
+}
+
+abstract class RingBufferPad2<E> extends RingBufferConsumerIndex<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+/**
+ * 无锁的有界多生产者多消费者环形队列（Dmitry Vyukov的算法）：每个槽位有一个序号，
+ * 序号等于位置时可写入、等于位置+1时可读取，生产者和消费者各自用CAS抢占位置，只在同一个槽位上交接。
+ * 容量向上取整为2的幂（至少为2），满或空时按WaitStrategy等待，可以作为ThreadPoolExecutor的任务队列。
+ * 不支持从中间删除元素，remove(Object)总是返回false，迭代器是弱一致的快照。
+ * 槽位的序号用volatile写发布：之后读取等待者计数时不能被重排到发布之前，否则与先登记、再检查的等待者会互相错过，丢失唤醒。
+ */
+public class RingBuffer<E> extends RingBufferPad2<E> implements BlockingQueue<E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<RingBufferProducerIndex> PRODUCER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(RingBufferProducerIndex.class, "producerIndex");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<RingBufferConsumerIndex> CONSUMER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(RingBufferConsumerIndex.class, "consumerIndex");
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final Object[] elements;
+    private final WaitStrategy notEmpty;
+    private final WaitStrategy notFull;
+
+    public RingBuffer(int capacity) {
+        this(capacity, WaitStrategy::spinThenPark);
+    }
+
+    //waitStrategy分别为非空和非满条件各创建一个实例
+    public RingBuffer(int capacity, Supplier<WaitStrategy> waitStrategy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must is positive integer!");
+        if (capacity > 1 << 30)
+            throw new IllegalArgumentException("The capacity must not be greater than " + (1 << 30) + "!");
+        capacity = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequences.lazySet(i, i);
+        elements = new Object[capacity];
+        notEmpty = waitStrategy.get();
+        notFull = waitStrategy.get();
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public boolean offer(E element) {
+        if (!tryOffer(element)) return false;
+        notEmpty.signal();
+        return true;
+    }
+
+    private boolean tryOffer(E element) {
+        Objects.requireNonNull(element);
+        long position = producerIndex;
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (PRODUCER_INDEX.compareAndSet(this, position, position + 1)) {
+                    elements[index] = element;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = producerIndex;
+            } else if (difference < 0) {
+                //槽位上一轮的元素还未被取走，队列已满
+                return false;
+            } else
+                position = producerIndex;
+        }
+    }
+
+    @Override
+    public E poll() {
+        E element = tryPoll();
+        if (element != null) notFull.signal();
+        return element;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E tryPoll() {
+        long position = consumerIndex;
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (CONSUMER_INDEX.compareAndSet(this, position, position + 1)) {
+                    E element = (E) elements[index];
+                    elements[index] = null;
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = consumerIndex;
+            } else if (difference < 0) {
+                //槽位还未写入，队列为空
+                return null;
+            } else
+                position = consumerIndex;
+        }
+    }
+
+    /**
+     * 批量放入elements[offset, offset + length)中尽可能多的元素，返回放入的个数。
+     * 连续的空槽位用一次CAS一起抢占，只唤醒一次等待者。
+     */
+    public int offerBatch(E[] elements, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) Objects.requireNonNull(elements[i]);
+        while (true) {
+            long position = producerIndex;
+            int count = 0;
+            while (count < length && sequences.get((int) (position + count) & mask) == position + count) count++;
+            if (count == 0) return 0;
+            if (PRODUCER_INDEX.compareAndSet(this, position, position + count)) {
+                for (int i = 0; i < count; i++) {
+                    int index = (int) (position + i) & mask;
+                    this.elements[index] = elements[offset + i];
+                    sequences.set(index, position + i + 1);
+                }
+                notEmpty.signalAll();
+                return count;
+            }
+        }
+    }
+
+    /**
+     * 批量取出最多limit个元素交给consumer，返回取出的个数，不会等待。
+     * 连续的已写入槽位用一次CAS一起抢占，只唤醒一次等待者。
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<? super E> consumer, int limit) {
+        while (true) {
+            long position = consumerIndex;
+            int count = 0;
+            while (count < limit && sequences.get((int) (position + count) & mask) == position + count + 1) count++;
+            if (count == 0) return 0;
+            if (CONSUMER_INDEX.compareAndSet(this, position, position + count)) {
+                //先全部取出再回调，consumer抛出异常时槽位也已经释放
+                Object[] batch = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    int index = (int) (position + i) & mask;
+                    batch[i] = elements[index];
+                    elements[index] = null;
+                    sequences.set(index, position + i + mask + 1);
+                }
+                notFull.signalAll();
+                for (Object element : batch) consumer.accept((E) element);
+                return count;
+            }
+        }
+    }
+
+    @Override
+    public void put(E element) throws InterruptedException {
+        if (!offer(element, Long.MAX_VALUE, TimeUnit.NANOSECONDS))
+            throw new IllegalStateException("The put is not expected to time out");
+    }
+
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        if (tryOffer(element) || notFull.await(() -> tryOffer(element), unit.toNanos(timeout))) {
+            notEmpty.signal();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Object[] holder = new Object[1];
+        E element = tryPoll();
+        if (element == null && notEmpty.await(() -> (holder[0] = tryPoll()) != null, unit.toNanos(timeout))) {
+            @SuppressWarnings("unchecked")
+            E polled = (E) holder[0];
+            element = polled;
+        }
+        if (element != null) notFull.signal();
+        return element;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        while (true) {
+            long position = consumerIndex;
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) return null;
+            Object element = elements[index];
+            //读取期间元素可能已被取走，位置未变化时读到的才是队首
+            if (element != null && consumerIndex == position) return (E) element;
+        }
+    }
+
+    @Override
+    public int size() {
+        while (true) {
+            long before = consumerIndex;
+            long producer = producerIndex;
+            if (consumerIndex == before) return (int) Math.max(0, Math.min(producer - before, capacity()));
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return producerIndex == consumerIndex;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity() - size();
+    }
+
+    //环形队列不支持从中间删除
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this)
+            throw new IllegalArgumentException("The collection must not be the ring buffer itself!");
+        int total = 0;
+        for (int count; total < maxElements && (count = drain(c::add, maxElements - total)) > 0; ) total += count;
+        return total;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long producer = producerIndex;
+        for (long position = consumerIndex; position < producer; position++) {
+            int index = (int) position & mask;
+            Object element = elements[index];
+            if (sequences.get(index) == position + 1 && element != null) snapshot.add((E) element);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+}
@@ -0,0 +1,345 @@
+package com.mikkku.concurrent;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * 流水线中的一个阶段：并发数和待处理任务数都有上限，达到上限时提交者阻塞等待，
+ * 而不是像CallerRunsPolicy那样由提交者自己执行任务。
+ * 阶段之间只能单向提交，否则队列同时占满时会互相等待。
+ */
+public abstract class StageExecutor {
+
+    private final String name;
+
+    protected StageExecutor(String name) {
+        this.name = name;
+    }
+
+    //固定线程数和有界队列，队列为RingBuffer，容量向上取整为2的幂
+    public static StageExecutor pooled(String name, int threads, int capacity) {
+        return new PooledStage(name, threads, capacity);
+    }
+
+    //每个任务使用独立线程（JDK 21及以上为虚拟线程），同时执行的任务数不超过permits
+    public static StageExecutor perTask(String name, int permits) {
+        return new PerTaskStage(name, permits);
+    }
+
+    /**
+     * 每个设备使用独立的线程和队列，线程数由permits按设备决定（如机械硬盘少、固态硬盘和网络文件系统多），
+     * 不同设备互不影响。每个设备最多排队capacity个任务，队列中的任务按order从小到大执行（如inode编号，近似磁盘上的顺序）。
+     */
+    public static StageExecutor perDevice(String name, ToIntFunction<Object> permits, int capacity) {
+        return new DeviceStage(name, permits, capacity);
+    }
+
+    public abstract void execute(Runnable task);
+
+    //device和order只对perDevice创建的阶段有效，其余阶段忽略
+    public void execute(Runnable task, Object device, long order) {
+        execute(task);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public abstract int getQueueDepth();
+
+    public abstract int getQueueCapacity();
+
+    public abstract int getActiveCount();
+
+    public abstract void shutdown();
+
+    public abstract boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+
+    private static class PooledStage extends StageExecutor {
+
+        private final int capacity;
+        private final ThreadPoolExecutor executor;
+
+        public PooledStage(String name, int threads, int capacity) {
+            super(name);
+            if (threads <= 0)
+                throw new IllegalArgumentException("The threads must is positive integer!");
+            if (capacity <= 0)
+                throw new IllegalArgumentException("The capacity must is positive integer!");
+            RingBuffer<Runnable> queue = new RingBuffer<>(capacity, WaitStrategy::blocking);
+            this.capacity = queue.capacity();
+            AtomicInteger index = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, queue,
+                    runnable -> new Thread(runnable, name + "-" + index.incrementAndGet()), (runnable, executor) -> {
+                if (executor.isShutdown())
+                    throw new RejectedExecutionException("The stage " + name + " is shutdown");
+                try {
+                    executor.getQueue().put(runnable);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("The submission to stage " + name + " is interrupted", e);
+                }
+            });
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            executor.execute(task);
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public int getActiveCount() {
+            return executor.getActiveCount();
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+
+    private static class PerTaskStage extends StageExecutor {
+
+        //Phaser最多登记65535个参与者，其中一个留给阶段本身
+        private static final int MAX_PERMITS = 65534;
+
+        private final int permits;
+        private final Semaphore semaphore;
+        private final ThreadFactory threadFactory;
+        private final Phaser running = new Phaser(1);
+        private volatile boolean shutdown;
+
+        public PerTaskStage(String name, int permits) {
+            super(name);
+            if (permits <= 0)
+                throw new IllegalArgumentException("The permits must is positive integer!");
+            if (permits > MAX_PERMITS)
+                throw new IllegalArgumentException("The permits must not be greater than " + MAX_PERMITS + "!");
+            this.permits = permits;
+            semaphore = new Semaphore(permits);
+            ThreadFactory virtualThreadFactory = virtualThreadFactory(name);
+            if (virtualThreadFactory == null) {
+                AtomicInteger index = new AtomicInteger();
+                threadFactory = runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+            } else
+                threadFactory = virtualThreadFactory;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (shutdown)
+                throw new RejectedExecutionException("The stage " + getName() + " is shutdown");
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("The submission to stage " + getName() + " is interrupted", e);
+            }
+            running.register();
+            threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    semaphore.release();
+                    running.arriveAndDeregister();
+                }
+            }).start();
+        }
+
+        //等待许可的提交者数量
+        @Override
+        public int getQueueDepth() {
+            return semaphore.getQueueLength();
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return permits;
+        }
+
+        @Override
+        public int getActiveCount() {
+            return permits - semaphore.availablePermits();
+        }
+
+        @Override
+        public void shutdown() {
+            if (shutdown) return;
+            shutdown = true;
+            running.arriveAndDeregister();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            try {
+                running.awaitAdvanceInterruptibly(0, timeout, unit);
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+
+        //通过反射获取虚拟线程工厂，低于JDK 21时返回null
+        private static ThreadFactory virtualThreadFactory(String name) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class DeviceStage extends StageExecutor {
+
+        //没有指定设备的任务
+        private static final Object DEFAULT_DEVICE = "default";
+
+        private final ToIntFunction<Object> permits;
+        private final int capacity;
+        private final ConcurrentHashMap<Object, Device> devices = new ConcurrentHashMap<>();
+        //相同order的任务按提交顺序执行
+        private final AtomicLong sequence = new AtomicLong();
+        private volatile boolean shutdown;
+
+        public DeviceStage(String name, ToIntFunction<Object> permits, int capacity) {
+            super(name);
+            if (capacity <= 0)
+                throw new IllegalArgumentException("The capacity must is positive integer!");
+            this.permits = permits;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            execute(task, null, 0);
+        }
+
+        @Override
+        public void execute(Runnable task, Object device, long order) {
+            if (shutdown)
+                throw new RejectedExecutionException("The stage " + getName() + " is shutdown");
+            Device target = devices.computeIfAbsent(device == null ? DEFAULT_DEVICE : device, Device::new);
+            try {
+                target.slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("The submission to stage " + getName() + " is interrupted", e);
+            }
+            try {
+                target.executor.execute(new OrderedTask(order, sequence.getAndIncrement(), () -> {
+                    try {
+                        task.run();
+                    } finally {
+                        target.slots.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                target.slots.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getQueueDepth() {
+            int depth = 0;
+            for (Device device : devices.values()) depth += device.executor.getQueue().size();
+            return depth;
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return capacity * Math.max(1, devices.size());
+        }
+
+        @Override
+        public int getActiveCount() {
+            int count = 0;
+            for (Device device : devices.values()) count += device.executor.getActiveCount();
+            return count;
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            for (Device device : devices.values()) device.executor.shutdown();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout), begin = System.nanoTime();
+            for (Device device : devices.values())
+                if (!device.executor.awaitTermination(nanos - (System.nanoTime() - begin), TimeUnit.NANOSECONDS))
+                    return false;
+            return true;
+        }
+
+        private class Device {
+
+            private final Semaphore slots = new Semaphore(capacity);
+            private final ThreadPoolExecutor executor;
+
+            public Device(Object device) {
+                int threads = permits.applyAsInt(device);
+                if (threads <= 0)
+                    throw new IllegalArgumentException("The permits of device " + device + " must is positive integer!");
+                AtomicInteger index = new AtomicInteger();
+                String prefix = getName() + "-" + device + "-";
+                //空闲的线程超时退出，只出现过少量文件的设备不会一直占用线程
+                executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                        runnable -> new Thread(runnable, prefix + index.incrementAndGet()));
+                executor.allowCoreThreadTimeOut(true);
+                //关闭后才创建的设备也不再接受任务
+                if (shutdown) executor.shutdown();
+            }
+        }
+
+        private static class OrderedTask implements Runnable, Comparable<OrderedTask> {
+
+            private final long order;
+            private final long sequence;
+            private final Runnable task;
+
+            public OrderedTask(long order, long sequence, Runnable task) {
+                this.order = order;
+                this.sequence = sequence;
+                this.task = task;
+            }
+
+            @Override
+            public void run() {
+                task.run();
+            }
+
+            @Override
+            public int compareTo(OrderedTask other) {
+                int result = Long.compare(order, other.order);
+                return result != 0 ? result : Long.compare(sequence, other.sequence);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.mikkku.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * RingBuffer在满或空时的等待方式，每个实例只对应一个等待条件（非空或非满）。
+ * blocking适合大多数时间空闲的消费者（如阶段的工作线程），不占用CPU；
+ * spinThenPark不需要唤醒，改变状态的一方没有额外开销，适合交接频繁、等待很短的场景。
+ */
+public abstract class WaitStrategy {
+
+    //锁和条件变量，只有存在等待者时signal才加锁
+    public static WaitStrategy blocking() {
+        return new BlockingStrategy();
+    }
+
+    //默认先自旋100次、再让出10次，然后从1微秒开始加倍休眠，最长1毫秒
+    public static WaitStrategy spinThenPark() {
+        return new SpinThenParkStrategy(100, 10, 1000, 1000000);
+    }
+
+    public static WaitStrategy spinThenPark(int spins, int yields, long minParkNanos, long maxParkNanos) {
+        return new SpinThenParkStrategy(spins, yields, minParkNanos, maxParkNanos);
+    }
+
+    //反复尝试condition直到返回true，超过nanos纳秒仍未成功时返回false，nanos为Long.MAX_VALUE时不会超时
+    public abstract boolean await(BooleanSupplier condition, long nanos) throws InterruptedException;
+
+    //条件可能已经满足，唤醒一个等待者
+    public abstract void signal();
+
+    public abstract void signalAll();
+
+    private static class BlockingStrategy extends WaitStrategy {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition condition = lock.newCondition();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        @Override
+        public boolean await(BooleanSupplier condition, long nanos) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                //先登记再尝试，signal看到等待者后需要获取锁，而尝试失败到开始等待之间一直持有锁，不会丢失唤醒
+                waiters.incrementAndGet();
+                while (!condition.getAsBoolean()) {
+                    if (nanos == Long.MAX_VALUE)
+                        this.condition.await();
+                    else if (nanos <= 0)
+                        return false;
+                    else
+                        nanos = this.condition.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                waiters.decrementAndGet();
+                lock.unlock();
+            }
+        }
+
+        //调用方改变状态时必须使用volatile写，与这里读取等待者计数构成全序，等待者登记后的检查一定能看到新状态
+        @Override
+        public void signal() {
+            if (waiters.get() == 0) return;
+            lock.lock();
+            try {
+                condition.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            if (waiters.get() == 0) return;
+            lock.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class SpinThenParkStrategy extends WaitStrategy {
+
+        private final int spins;
+        private final int yields;
+        private final long minParkNanos;
+        private final long maxParkNanos;
+
+        public SpinThenParkStrategy(int spins, int yields, long minParkNanos, long maxParkNanos) {
+            if (spins < 0 || yields < 0)
+                throw new IllegalArgumentException("The spins and yields must not be negative!");
+            if (minParkNanos <= 0 || maxParkNanos < minParkNanos)
+                throw new IllegalArgumentException("The park nanos must is positive and max not less than min!");
+            this.spins = spins;
+            this.yields = yields;
+            this.minParkNanos = minParkNanos;
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        @Override
+        public boolean await(BooleanSupplier condition, long nanos) throws InterruptedException {
+            long deadline = nanos == Long.MAX_VALUE ? 0 : System.nanoTime() + nanos;
+            long park = minParkNanos;
+            for (int round = 0; !condition.getAsBoolean(); round++) {
+                if (round < spins) continue;
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (nanos != Long.MAX_VALUE && deadline - System.nanoTime() <= 0) return false;
+                if (round < spins + yields) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, park);
+                    park = Math.min(park * 2, maxParkNanos);
+                }
+            }
+            return true;
+        }
+
+        //等待者会定时醒来重试，不需要唤醒
+        @Override
+        public void signal() {
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+}
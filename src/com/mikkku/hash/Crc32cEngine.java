@@ -0,0 +1,76 @@
+package com.mikkku.hash;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+//JDK 9及以上使用硬件加速的CRC32C，JDK 8退回到CRC32
+public class Crc32cEngine implements HashEngine {
+
+    private static final MethodHandle CONSTRUCTOR;
+    private static final MethodHandle UPDATE;
+
+    static {
+        MethodHandle constructor = null, update = null;
+        try {
+            Class<?> crc32c = Class.forName("java.util.zip.CRC32C");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            constructor = lookup.findConstructor(crc32c, MethodType.methodType(void.class));
+            update = lookup.findVirtual(crc32c, "update", MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException ignore) {
+        }
+        CONSTRUCTOR = constructor;
+        UPDATE = update;
+    }
+
+    @Override
+    public String getName() {
+        return CONSTRUCTOR == null ? "CRC32" : CRC32C;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        Checksum checksum;
+        try {
+            checksum = CONSTRUCTOR == null ? new CRC32() : (Checksum) CONSTRUCTOR.invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return new Hasher() {
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                if (UPDATE == null) {
+                    ((CRC32) checksum).update(buffer);
+                    return;
+                }
+                try {
+                    UPDATE.invoke(checksum, buffer);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void update(byte[] bytes) {
+                checksum.update(bytes, 0, bytes.length);
+            }
+
+            @Override
+            public byte[] digest() {
+                int value = (int) checksum.getValue();
+                checksum.reset();
+                return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+            }
+
+            @Override
+            public void reset() {
+                checksum.reset();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.mikkku.hash;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * FastCDC内容定义分块：用Gear滚动哈希寻找切分点，切分点只取决于数据块开头之后的内容，
+ * 文件中间插入或删除数据只影响附近的数据块。跳过前minSize字节，平均长度之前使用更严格的掩码，
+ * 之后使用更宽松的掩码（归一化分块），使数据块长度集中在平均长度附近，最长不超过maxSize。
+ */
+public class FastCdc {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        //固定种子，保证不同版本、不同机器上的切分点相同
+        Random random = new Random(0x46617374434443L);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = random.nextLong();
+    }
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    //最短为平均长度的1/4，最长为平均长度的8倍
+    public FastCdc(int averageSize) {
+        this(averageSize / 4, averageSize, averageSize * 8);
+    }
+
+    public FastCdc(int minSize, int averageSize, int maxSize) {
+        if (averageSize < 64 || Integer.bitCount(averageSize) != 1)
+            throw new IllegalArgumentException("The average size must be a power of 2 and not less than 64!");
+        if (minSize <= 0 || minSize > averageSize || maxSize < averageSize)
+            throw new IllegalArgumentException("The sizes must satisfy 0 < min <= average <= max!");
+        this.minSize = minSize;
+        this.averageSize = averageSize;
+        this.maxSize = maxSize;
+        //Gear哈希的高位与更多的字节有关，掩码取高位
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        strictMask = -1L << (64 - bits - 2);
+        looseMask = -1L << (64 - bits + 2);
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getAverageSize() {
+        return averageSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 返回从buffer的offset处开始的数据块长度，只读取[offset, limit)内的字节，不改变buffer的位置。
+     * 剩余数据不足以确定切分点且end为false（后面还有数据）时返回0，应读入更多数据后从同一位置重试。
+     */
+    public int next(ByteBuffer buffer, int offset, int limit, boolean end) {
+        int length = limit - offset;
+        if (length <= 0) return 0;
+        if (length <= minSize) return end ? length : 0;
+        int normal = Math.min(averageSize, length), max = Math.min(maxSize, length);
+        long fingerprint = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer.get(offset + i) & 0xFF];
+            if ((fingerprint & strictMask) == 0) return i + 1;
+        }
+        for (; i < max; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer.get(offset + i) & 0xFF];
+            if ((fingerprint & looseMask) == 0) return i + 1;
+        }
+        if (max == maxSize || end) return max;
+        return 0;
+    }
+
+}
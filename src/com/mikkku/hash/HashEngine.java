@@ -0,0 +1,30 @@
+package com.mikkku.hash;
+
+import java.util.Locale;
+
+/**
+ * 哈希算法：非加密哈希（xxHash64、CRC32C）速度远高于MD5，适合抽样指纹等预筛选阶段，
+ * 加密摘要（SHA-256等MessageDigest支持的算法）适合最终确认阶段。
+ */
+public interface HashEngine {
+
+    String XXHASH64 = "XXHASH64";
+    String CRC32C = "CRC32C";
+
+    String getName();
+
+    Hasher newHasher();
+
+    //按名称获取算法，不是内置的非加密哈希时作为MessageDigest的算法名称
+    static HashEngine of(String name) {
+        switch (name.toUpperCase(Locale.ROOT)) {
+            case XXHASH64:
+                return new XxHash64Engine();
+            case CRC32C:
+                return new Crc32cEngine();
+            default:
+                return new MessageDigestEngine(name);
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.mikkku.hash;
+
+import java.nio.ByteBuffer;
+
+//增量计算哈希值，同一实例同一时刻只能由一个线程使用
+public interface Hasher {
+
+    void update(ByteBuffer buffer);
+
+    void update(byte[] bytes);
+
+    //返回哈希值并重置为初始状态
+    byte[] digest();
+
+    void reset();
+
+}
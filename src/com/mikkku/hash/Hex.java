@@ -0,0 +1,22 @@
+package com.mikkku.hash;
+
+/**
+ * 把摘要编码为大写的十六进制字符串，不依赖JDK内部的HexBin（JDK 9以后默认不可访问）。
+ */
+public final class Hex {
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private Hex() {
+    }
+
+    public static String encode(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = DIGITS[(bytes[i] >>> 4) & 0xF];
+            chars[i * 2 + 1] = DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.mikkku.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class MessageDigestEngine implements HashEngine {
+
+    private final String algorithm;
+
+    public MessageDigestEngine(String algorithm) {
+        try {
+            MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("The algorithm " + algorithm + " is not exists", e);
+        }
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public String getName() {
+        return algorithm;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Hasher() {
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                digest.update(buffer);
+            }
+
+            @Override
+            public void update(byte[] bytes) {
+                digest.update(bytes);
+            }
+
+            @Override
+            public byte[] digest() {
+                return digest.digest();
+            }
+
+            @Override
+            public void reset() {
+                digest.reset();
+            }
+        };
+    }
+
+}
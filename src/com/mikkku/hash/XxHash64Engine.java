@@ -0,0 +1,155 @@
+package com.mikkku.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * xxHash64（种子为0）。每32字节分成4条互不依赖的8字节通道分别累加，
+ * 便于CPU指令级并行和JIT自动向量化，单核吞吐可达每秒数GB。
+ */
+public class XxHash64Engine implements HashEngine {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    @Override
+    public String getName() {
+        return XXHASH64;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new XxHash64();
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    private static long getLong(byte[] bytes, int index) {
+        return (bytes[index] & 0xFFL) | (bytes[index + 1] & 0xFFL) << 8 | (bytes[index + 2] & 0xFFL) << 16
+                | (bytes[index + 3] & 0xFFL) << 24 | (bytes[index + 4] & 0xFFL) << 32 | (bytes[index + 5] & 0xFFL) << 40
+                | (bytes[index + 6] & 0xFFL) << 48 | (bytes[index + 7] & 0xFFL) << 56;
+    }
+
+    private static long getInt(byte[] bytes, int index) {
+        return (bytes[index] & 0xFFL) | (bytes[index + 1] & 0xFFL) << 8 | (bytes[index + 2] & 0xFFL) << 16
+                | (bytes[index + 3] & 0xFFL) << 24;
+    }
+
+    private static class XxHash64 implements Hasher {
+
+        private final byte[] memory = new byte[STRIPE];
+        private int memorySize;
+        private long totalLength;
+        private long v1, v2, v3, v4;
+
+        public XxHash64() {
+            reset();
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            ByteOrder order = buffer.order();
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            totalLength += buffer.remaining();
+            //先补齐上次剩余的不足32字节的数据
+            if (memorySize > 0) {
+                int len = Math.min(STRIPE - memorySize, buffer.remaining());
+                buffer.get(memory, memorySize, len);
+                memorySize += len;
+                if (memorySize < STRIPE) {
+                    buffer.order(order);
+                    return;
+                }
+                stripe(getLong(memory, 0), getLong(memory, 8), getLong(memory, 16), getLong(memory, 24));
+                memorySize = 0;
+            }
+            long v1 = this.v1, v2 = this.v2, v3 = this.v3, v4 = this.v4;
+            while (buffer.remaining() >= STRIPE) {
+                v1 = round(v1, buffer.getLong());
+                v2 = round(v2, buffer.getLong());
+                v3 = round(v3, buffer.getLong());
+                v4 = round(v4, buffer.getLong());
+            }
+            this.v1 = v1;
+            this.v2 = v2;
+            this.v3 = v3;
+            this.v4 = v4;
+            memorySize = buffer.remaining();
+            buffer.get(memory, 0, memorySize);
+            buffer.order(order);
+        }
+
+        @Override
+        public void update(byte[] bytes) {
+            update(ByteBuffer.wrap(bytes));
+        }
+
+        private void stripe(long l1, long l2, long l3, long l4) {
+            v1 = round(v1, l1);
+            v2 = round(v2, l2);
+            v3 = round(v3, l3);
+            v4 = round(v4, l4);
+        }
+
+        @Override
+        public byte[] digest() {
+            long hash;
+            if (totalLength >= STRIPE) {
+                hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                hash = mergeRound(hash, v1);
+                hash = mergeRound(hash, v2);
+                hash = mergeRound(hash, v3);
+                hash = mergeRound(hash, v4);
+            } else
+                hash = PRIME5;
+            hash += totalLength;
+            int index = 0;
+            for (; index + 8 <= memorySize; index += 8) {
+                hash ^= round(0, getLong(memory, index));
+                hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            }
+            if (index + 4 <= memorySize) {
+                hash ^= getInt(memory, index) * PRIME1;
+                hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+                index += 4;
+            }
+            for (; index < memorySize; index++) {
+                hash ^= (memory[index] & 0xFFL) * PRIME5;
+                hash = Long.rotateLeft(hash, 11) * PRIME1;
+            }
+            hash ^= hash >>> 33;
+            hash *= PRIME2;
+            hash ^= hash >>> 29;
+            hash *= PRIME3;
+            hash ^= hash >>> 32;
+            reset();
+            byte[] bytes = new byte[8];
+            for (int i = 7; i >= 0; i--, hash >>>= 8) bytes[i] = (byte) hash;
+            return bytes;
+        }
+
+        @Override
+        public void reset() {
+            v1 = PRIME1 + PRIME2;
+            v2 = PRIME2;
+            v3 = 0;
+            v4 = -PRIME1;
+            memorySize = 0;
+            totalLength = 0;
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.mikkku.index;
+
+/**
+ * 候选分组的并发索引：键为两个long（如文件大小和抽样指纹，只按大小分组时第二个为0），
+ * 值为组内暂存的第一个文件的路径编号，出现第二个文件后标记为已重复，不再保存任何文件。
+ * 与DigestIndex一样按键的哈希值高位分段加锁、段内开放寻址，每个键只占20字节的数组空间，不产生逐个文件的对象。
+ */
+public class CandidateIndex {
+
+    //当前文件是组内第一个文件，已暂存
+    public static final int PARKED = -1;
+    //组内已有两个以上的文件，当前文件直接进入下一阶段
+    public static final int REPEATED = -2;
+
+    private static final int SEGMENT_SHIFT = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+    private static final int INIT_CAPACITY = 1 << 4;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public CandidateIndex() {
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+    /**
+     * 组内第一个文件暂存id并返回PARKED；第二个文件返回暂存的id，由调用者把两个文件一并送入下一阶段；
+     * 之后的文件返回REPEATED。
+     */
+    public int arrive(long key1, long key2, int id) {
+        if (id < 0)
+            throw new IllegalArgumentException("The id must not be negative!");
+        long hash = DigestIndex.mix(new long[]{key1, key2});
+        return segments[(int) (hash >>> (64 - SEGMENT_SHIFT))].arrive(key1, key2, (int) hash, id);
+    }
+
+    //始终只有一个文件的组数，这些文件不可能重复
+    public int uniqueCount() {
+        int count = 0;
+        for (Segment segment : segments) count += segment.uniqueCount();
+        return count;
+    }
+
+    private static class Segment {
+
+        private long[] keys = new long[INIT_CAPACITY * 2];
+        //暂存的路径编号+2，1表示已重复，0表示空槽
+        private int[] values = new int[INIT_CAPACITY];
+        private int size;
+        private int uniqueCount;
+
+        public synchronized int arrive(long key1, long key2, int hash, int id) {
+            int mask = values.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                if (values[slot] == 0) {
+                    keys[slot * 2] = key1;
+                    keys[slot * 2 + 1] = key2;
+                    values[slot] = id + 2;
+                    uniqueCount++;
+                    //装载因子不超过0.75
+                    if (++size * 4 > values.length * 3) rehash();
+                    return PARKED;
+                }
+                if (keys[slot * 2] == key1 && keys[slot * 2 + 1] == key2) {
+                    int parked = values[slot] - 2;
+                    if (parked < 0) return REPEATED;
+                    values[slot] = 1;
+                    uniqueCount--;
+                    return parked;
+                }
+            }
+        }
+
+        public synchronized int uniqueCount() {
+            return uniqueCount;
+        }
+
+        private void rehash() {
+            long[] keys = new long[this.keys.length * 2];
+            int[] values = new int[this.values.length * 2];
+            int mask = values.length - 1;
+            for (int old = 0; old < this.values.length; old++) {
+                if (this.values[old] == 0) continue;
+                long key1 = this.keys[old * 2], key2 = this.keys[old * 2 + 1];
+                int slot = (int) DigestIndex.mix(new long[]{key1, key2}) & mask;
+                while (values[slot] != 0) slot = (slot + 1) & mask;
+                keys[slot * 2] = key1;
+                keys[slot * 2 + 1] = key2;
+                values[slot] = this.values[old];
+            }
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.mikkku.index;
+
+/**
+ * 数据块摘要到最先出现该数据块的文件编号的并发索引，分段加锁、段内开放寻址，与DigestIndex相同。
+ * 每个不同的数据块分配一个固定的编号，调用者可以按编号记录某个文件引用过哪些数据块。
+ * 每个不同的数据块占用摘要长度（按8字节取整）加8字节的数组空间，装载因子不超过0.75，
+ * 索引大小只与不同数据块的个数有关，与重复次数无关。
+ */
+public class ChunkIndex {
+
+    private static final int SEGMENT_SHIFT = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+    private static final int INIT_CAPACITY = 1 << 6;
+
+    private final int digestLength;
+    private final int words;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public ChunkIndex(int digestLength) {
+        if (digestLength <= 0)
+            throw new IllegalArgumentException("The digest length must is positive integer!");
+        this.digestLength = digestLength;
+        words = (digestLength + 7) / 8;
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+    /**
+     * 数据块第一次出现时记录为id所有，返回值包含数据块编号和所属文件编号，分别用chunk和owner取出，
+     * 数据块第一次出现时所属文件编号为-1。
+     */
+    public long putIfAbsent(byte[] digest, int id) {
+        if (digest.length != digestLength)
+            throw new IllegalArgumentException("The digest length must be " + digestLength + "!");
+        if (id < 0)
+            throw new IllegalArgumentException("The id must not be negative!");
+        long[] key = DigestIndex.pack(digest, words);
+        long hash = DigestIndex.mix(key);
+        int segment = (int) (hash >>> (64 - SEGMENT_SHIFT));
+        return segments[segment].putIfAbsent(key, (int) hash, id, segment);
+    }
+
+    //putIfAbsent的返回值对应的数据块编号，同一数据块总是相同
+    public static int chunk(long result) {
+        return (int) (result >>> 32);
+    }
+
+    //putIfAbsent的返回值对应的所属文件编号，数据块第一次出现时为-1
+    public static int owner(long result) {
+        return (int) result;
+    }
+
+    //不同数据块的个数
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    private class Segment {
+
+        private long[] keys = new long[INIT_CAPACITY * words];
+        //文件编号+1，0表示空槽
+        private int[] owners = new int[INIT_CAPACITY];
+        //数据块编号：段内序号<<SEGMENT_SHIFT|段号，各段分配的编号互不相同
+        private int[] chunks = new int[INIT_CAPACITY];
+        private int size;
+
+        public synchronized long putIfAbsent(long[] key, int hash, int id, int segment) {
+            int mask = owners.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                if (owners[slot] == 0) {
+                    int chunk = size << SEGMENT_SHIFT | segment;
+                    System.arraycopy(key, 0, keys, slot * words, words);
+                    owners[slot] = id + 1;
+                    chunks[slot] = chunk;
+                    if (++size * 4 > owners.length * 3) rehash();
+                    return (long) chunk << 32 | 0xFFFFFFFFL;
+                }
+                if (equals(slot, key)) return (long) chunks[slot] << 32 | (owners[slot] - 1);
+            }
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        private boolean equals(int slot, long[] key) {
+            for (int i = 0, offset = slot * words; i < words; i++) if (keys[offset + i] != key[i]) return false;
+            return true;
+        }
+
+        private void rehash() {
+            long[] keys = new long[this.keys.length * 2];
+            int[] owners = new int[this.owners.length * 2], chunks = new int[this.chunks.length * 2];
+            int mask = owners.length - 1;
+            long[] key = new long[words];
+            for (int old = 0; old < this.owners.length; old++) {
+                if (this.owners[old] == 0) continue;
+                System.arraycopy(this.keys, old * words, key, 0, words);
+                int slot = (int) DigestIndex.mix(key) & mask;
+                while (owners[slot] != 0) slot = (slot + 1) & mask;
+                System.arraycopy(key, 0, keys, slot * words, words);
+                owners[slot] = this.owners[old];
+                chunks[slot] = this.chunks[old];
+            }
+            this.keys = keys;
+            this.owners = owners;
+            this.chunks = chunks;
+        }
+    }
+
+}
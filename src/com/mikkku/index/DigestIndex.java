@@ -0,0 +1,192 @@
+package com.mikkku.index;
+
+import java.util.Arrays;
+
+/**
+ * 以（文件大小，定长摘要）为键的并发索引：大小和按原始字节打包的摘要组成long数组，值为路径编号和一个时间戳（如修改时间），
+ * 按键的哈希值高位分段加锁，段内开放寻址，每个键只占摘要长度加24字节的数组空间。
+ * 大小和摘要都相同时为其分配组号，组内路径编号另外保存，只有重复文件才占用这部分空间。
+ * 大小不同的文件即使摘要碰撞（CRC32C等较短的摘要更容易发生）也不会被分到同一组。
+ */
+public class DigestIndex {
+
+    private static final int SEGMENT_SHIFT = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+    private static final int INIT_CAPACITY = 1 << 6;
+
+    private final int digestLength;
+    private final int words;
+    //第一个long为文件大小，其余为摘要
+    private final int keyWords;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    //重复组：组号对应的摘要和组内的路径编号
+    private byte[][] groupDigests = new byte[INIT_CAPACITY][];
+    private int[][] groupMembers = new int[INIT_CAPACITY][];
+    private long[][] groupStamps = new long[INIT_CAPACITY][];
+    private int[] groupSizes = new int[INIT_CAPACITY];
+    private int groupCount;
+
+    public DigestIndex(int digestLength) {
+        if (digestLength <= 0)
+            throw new IllegalArgumentException("The digest length must is positive integer!");
+        this.digestLength = digestLength;
+        words = (digestLength + 7) / 8;
+        keyWords = words + 1;
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+    //大小和摘要第一次出现时返回-1，否则把id加入对应的重复组并返回组号
+    public int add(long size, byte[] digest, int id, long stamp) {
+        if (digest.length != digestLength)
+            throw new IllegalArgumentException("The digest length must be " + digestLength + "!");
+        if (id < 0)
+            throw new IllegalArgumentException("The id must not be negative!");
+        long[] key = pack(digest, keyWords, 1);
+        key[0] = size;
+        long hash = mix(key);
+        return segments[(int) (hash >>> (64 - SEGMENT_SHIFT))].add(key, (int) hash, digest, id, stamp);
+    }
+
+    //不同的（大小，摘要）的个数
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    public synchronized byte[] getDigest(int group) {
+        checkGroup(group);
+        return groupDigests[group].clone();
+    }
+
+    //组内路径编号按加入顺序排列
+    public synchronized int[] getGroup(int group) {
+        checkGroup(group);
+        return Arrays.copyOf(groupMembers[group], groupSizes[group]);
+    }
+
+    //与getGroup的顺序相同
+    public synchronized long[] getStamps(int group) {
+        checkGroup(group);
+        return Arrays.copyOf(groupStamps[group], groupSizes[group]);
+    }
+
+    private void checkGroup(int group) {
+        if (group < 0 || group >= groupCount)
+            throw new IndexOutOfBoundsException("The group " + group + " is not exists");
+    }
+
+    private synchronized int newGroup(byte[] digest, int first, long firstStamp) {
+        if (groupCount == groupDigests.length) {
+            groupDigests = Arrays.copyOf(groupDigests, groupCount * 2);
+            groupMembers = Arrays.copyOf(groupMembers, groupCount * 2);
+            groupStamps = Arrays.copyOf(groupStamps, groupCount * 2);
+            groupSizes = Arrays.copyOf(groupSizes, groupCount * 2);
+        }
+        groupDigests[groupCount] = digest.clone();
+        groupMembers[groupCount] = new int[2];
+        groupStamps[groupCount] = new long[2];
+        addMember(groupCount, first, firstStamp);
+        return groupCount++;
+    }
+
+    private synchronized void addMember(int group, int id, long stamp) {
+        int size = groupSizes[group];
+        if (size == groupMembers[group].length) {
+            groupMembers[group] = Arrays.copyOf(groupMembers[group], size * 2);
+            groupStamps[group] = Arrays.copyOf(groupStamps[group], size * 2);
+        }
+        groupMembers[group][size] = id;
+        groupStamps[group][size] = stamp;
+        groupSizes[group]++;
+    }
+
+    //按大端顺序把摘要打包为words个long
+    static long[] pack(byte[] digest, int words) {
+        return pack(digest, words, 0);
+    }
+
+    //摘要从第offset个long开始存放，之前的位置留给调用者
+    private static long[] pack(byte[] digest, int words, int offset) {
+        long[] key = new long[words];
+        for (int i = 0; i < digest.length; i++) key[offset + (i >>> 3)] |= (digest[i] & 0xFFL) << ((7 - (i & 7)) << 3);
+        return key;
+    }
+
+    //摘要本身已近似均匀分布，再混合一次以防截断后的摘要（如CRC32C）低位不均匀
+    static long mix(long[] key) {
+        long hash = 0;
+        for (long word : key) {
+            hash ^= word;
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            hash *= 0xC4CEB9FE1A85EC53L;
+            hash ^= hash >>> 33;
+        }
+        return hash;
+    }
+
+    private class Segment {
+
+        private long[] keys = new long[INIT_CAPACITY * keyWords];
+        //路径编号+1，0表示空槽
+        private int[] values = new int[INIT_CAPACITY];
+        private long[] stamps = new long[INIT_CAPACITY];
+        //重复组号+1，0表示尚未重复
+        private int[] groups = new int[INIT_CAPACITY];
+        private int size;
+
+        public synchronized int add(long[] key, int hash, byte[] digest, int id, long stamp) {
+            int mask = values.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                if (values[slot] == 0) {
+                    System.arraycopy(key, 0, keys, slot * keyWords, keyWords);
+                    values[slot] = id + 1;
+                    stamps[slot] = stamp;
+                    //装载因子不超过0.75
+                    if (++size * 4 > values.length * 3) rehash();
+                    return -1;
+                }
+                if (equals(slot, key)) {
+                    if (groups[slot] == 0)
+                        groups[slot] = newGroup(digest, values[slot] - 1, stamps[slot]) + 1;
+                    addMember(groups[slot] - 1, id, stamp);
+                    return groups[slot] - 1;
+                }
+            }
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        private boolean equals(int slot, long[] key) {
+            for (int i = 0, offset = slot * keyWords; i < keyWords; i++) if (keys[offset + i] != key[i]) return false;
+            return true;
+        }
+
+        private void rehash() {
+            long[] keys = new long[this.keys.length * 2];
+            int[] values = new int[this.values.length * 2], groups = new int[this.groups.length * 2];
+            long[] stamps = new long[this.stamps.length * 2];
+            int mask = values.length - 1;
+            long[] key = new long[keyWords];
+            for (int old = 0; old < this.values.length; old++) {
+                if (this.values[old] == 0) continue;
+                System.arraycopy(this.keys, old * keyWords, key, 0, keyWords);
+                int slot = (int) mix(key) & mask;
+                while (values[slot] != 0) slot = (slot + 1) & mask;
+                System.arraycopy(key, 0, keys, slot * keyWords, keyWords);
+                values[slot] = this.values[old];
+                stamps[slot] = this.stamps[old];
+                groups[slot] = this.groups[old];
+            }
+            this.keys = keys;
+            this.values = values;
+            this.stamps = stamps;
+            this.groups = groups;
+        }
+    }
+
+}
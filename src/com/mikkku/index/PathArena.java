@@ -0,0 +1,135 @@
+package com.mikkku.index;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * 路径字典树：每个路径分量只保存一次，记录父节点编号和UTF-8编码的名称，
+ * 同一目录下的文件共享目录节点，每个路径只占十几字节加文件名的长度。
+ * 名称按块连续存放，节点和查找表都是基本类型数组，不产生逐个路径的对象。
+ */
+public class PathArena {
+
+    private static final int INIT_CAPACITY = 1 << 10;
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int NONE = -1;
+
+    //节点：父节点编号和名称在块中的位置（块号<<20|块内偏移）
+    private int[] parents = new int[INIT_CAPACITY];
+    private long[] names = new long[INIT_CAPACITY];
+    private int count;
+    //以（父节点，名称）为键的开放寻址表，保存节点编号+1
+    private int[] table = new int[INIT_CAPACITY * 2];
+    private byte[][] chunks = new byte[1][];
+    private int chunkIndex;
+    private int chunkOffset;
+
+    public PathArena() {
+        chunks[0] = new byte[CHUNK_SIZE];
+    }
+
+    //返回路径的编号，同一路径总是返回同一编号
+    public synchronized int intern(Path path) {
+        int parent = NONE;
+        Path root = path.getRoot();
+        if (root != null) parent = intern(NONE, root.toString());
+        for (Path name : path) parent = intern(parent, name.toString());
+        return parent;
+    }
+
+    public synchronized Path get(int id) {
+        if (id < 0 || id >= count)
+            throw new IndexOutOfBoundsException("The path id " + id + " is not exists");
+        int depth = 0;
+        for (int node = id; node != NONE; node = parents[node]) depth++;
+        String[] parts = new String[depth];
+        for (int node = id; node != NONE; node = parents[node]) parts[--depth] = name(node);
+        return Paths.get(parts[0], Arrays.copyOfRange(parts, 1, parts.length));
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    private int intern(int parent, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int mask = table.length - 1;
+        for (int slot = hash(parent, bytes) & mask; ; slot = (slot + 1) & mask) {
+            int node = table[slot] - 1;
+            if (node == NONE) {
+                node = add(parent, bytes);
+                table[slot] = node + 1;
+                if (count * 2 > table.length) rehash();
+                return node;
+            }
+            if (parents[node] == parent && nameEquals(node, bytes)) return node;
+        }
+    }
+
+    private int add(int parent, byte[] bytes) {
+        if (bytes.length > 0xFFFF)
+            throw new IllegalArgumentException("The name is too long");
+        if (count == parents.length) {
+            parents = Arrays.copyOf(parents, count * 2);
+            names = Arrays.copyOf(names, count * 2);
+        }
+        //名称不跨块，长度用两个字节保存在名称之前
+        if (chunkOffset + 2 + bytes.length > CHUNK_SIZE) {
+            if (++chunkIndex == chunks.length) chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            chunks[chunkIndex] = new byte[CHUNK_SIZE];
+            chunkOffset = 0;
+        }
+        byte[] chunk = chunks[chunkIndex];
+        chunk[chunkOffset] = (byte) (bytes.length >>> 8);
+        chunk[chunkOffset + 1] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, chunk, chunkOffset + 2, bytes.length);
+        parents[count] = parent;
+        names[count] = (long) chunkIndex << CHUNK_SHIFT | chunkOffset;
+        chunkOffset += 2 + bytes.length;
+        return count++;
+    }
+
+    private String name(int node) {
+        byte[] chunk = chunks[(int) (names[node] >>> CHUNK_SHIFT)];
+        int offset = (int) (names[node] & (CHUNK_SIZE - 1));
+        int length = (chunk[offset] & 0xFF) << 8 | chunk[offset + 1] & 0xFF;
+        return new String(chunk, offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    private boolean nameEquals(int node, byte[] bytes) {
+        byte[] chunk = chunks[(int) (names[node] >>> CHUNK_SHIFT)];
+        int offset = (int) (names[node] & (CHUNK_SIZE - 1));
+        int length = (chunk[offset] & 0xFF) << 8 | chunk[offset + 1] & 0xFF;
+        if (length != bytes.length) return false;
+        for (int i = 0; i < length; i++) if (chunk[offset + 2 + i] != bytes[i]) return false;
+        return true;
+    }
+
+    private void rehash() {
+        int[] table = new int[this.table.length * 2];
+        int mask = table.length - 1;
+        for (int node = 0; node < count; node++) {
+            byte[] chunk = chunks[(int) (names[node] >>> CHUNK_SHIFT)];
+            int offset = (int) (names[node] & (CHUNK_SIZE - 1));
+            int length = (chunk[offset] & 0xFF) << 8 | chunk[offset + 1] & 0xFF;
+            int slot = hash(parents[node], chunk, offset + 2, length) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = node + 1;
+        }
+        this.table = table;
+    }
+
+    private static int hash(int parent, byte[] bytes) {
+        return hash(parent, bytes, 0, bytes.length);
+    }
+
+    private static int hash(int parent, byte[] bytes, int offset, int length) {
+        int hash = parent * 0x9E3779B9;
+        for (int i = offset; i < offset + length; i++) hash = hash * 31 + bytes[i];
+        return hash ^ hash >>> 16;
+    }
+
+}
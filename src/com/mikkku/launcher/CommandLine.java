@@ -0,0 +1,342 @@
+package com.mikkku.launcher;
+
+import com.mikkku.action.LinkDeduplicator;
+import com.mikkku.scanner.ScanOptions;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 命令行参数：选项之后的参数都作为扫描目录，指定--merge时作为索引文件。
+ */
+class CommandLine {
+
+    static final String[] FORMATS = {"text", "vbs", "jsonl", "csv", "index"};
+
+    private final List<File> roots = new ArrayList<>();
+    private String algorithm = "MD5";
+    private String prefilterAlgorithm;
+    private final List<String> includes = new ArrayList<>();
+    private final List<String> excludes = new ArrayList<>();
+    private long minSize = -1;
+    private long maxSize = -1;
+    private int walkThreads;
+    private int ioThreads;
+    private int cpuThreads;
+    private int queueCapacity;
+    private int virtualThreads;
+    private boolean deviceScheduling;
+    private int hddThreads;
+    private int networkThreads;
+    private File cacheFile;
+    private File checkpointFile;
+    private int checkpointInterval;
+    private boolean resume;
+    private boolean verify;
+    private int metricsInterval;
+    private boolean jmx;
+    private boolean chunks;
+    private int chunkSize;
+    private int shard;
+    private int shardCount;
+    private boolean merge;
+    private LinkDeduplicator.Mode linkMode;
+    private String format = "text";
+    private File output;
+    private boolean help;
+
+    private CommandLine() {
+    }
+
+    //参数有误时抛出IllegalArgumentException
+    static CommandLine parse(String... args) {
+        CommandLine commandLine = new CommandLine();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-") || arg.equals("-")) {
+                commandLine.roots.add(new File(arg));
+                continue;
+            }
+            switch (arg) {
+                case "-h":
+                case "--help":
+                    commandLine.help = true;
+                    break;
+                case "-a":
+                case "--algorithm":
+                    commandLine.algorithm = value(args, ++i, arg);
+                    break;
+                case "--prefilter-algorithm":
+                    commandLine.prefilterAlgorithm = value(args, ++i, arg);
+                    break;
+                case "--include":
+                    commandLine.includes.add(value(args, ++i, arg));
+                    break;
+                case "--exclude":
+                    commandLine.excludes.add(value(args, ++i, arg));
+                    break;
+                case "--min-size":
+                    commandLine.minSize = size(value(args, ++i, arg), arg);
+                    break;
+                case "--max-size":
+                    commandLine.maxSize = size(value(args, ++i, arg), arg);
+                    break;
+                case "--walk-threads":
+                    commandLine.walkThreads = count(value(args, ++i, arg), arg);
+                    break;
+                case "--io-threads":
+                    commandLine.ioThreads = count(value(args, ++i, arg), arg);
+                    break;
+                case "--cpu-threads":
+                    commandLine.cpuThreads = count(value(args, ++i, arg), arg);
+                    break;
+                case "--queue-capacity":
+                    commandLine.queueCapacity = count(value(args, ++i, arg), arg);
+                    break;
+                case "--virtual-threads":
+                    commandLine.virtualThreads = count(value(args, ++i, arg), arg);
+                    break;
+                case "--device-io":
+                    commandLine.deviceScheduling = true;
+                    break;
+                case "--hdd-threads":
+                    commandLine.hddThreads = count(value(args, ++i, arg), arg);
+                    break;
+                case "--network-threads":
+                    commandLine.networkThreads = count(value(args, ++i, arg), arg);
+                    break;
+                case "--cache":
+                    commandLine.cacheFile = new File(value(args, ++i, arg));
+                    break;
+                case "--checkpoint":
+                    commandLine.checkpointFile = new File(value(args, ++i, arg));
+                    break;
+                case "--checkpoint-interval":
+                    commandLine.checkpointInterval = count(value(args, ++i, arg), arg);
+                    break;
+                case "--resume":
+                    commandLine.resume = true;
+                    break;
+                case "--verify":
+                    commandLine.verify = true;
+                    break;
+                case "--metrics":
+                    commandLine.metricsInterval = count(value(args, ++i, arg), arg);
+                    break;
+                case "--jmx":
+                    commandLine.jmx = true;
+                    break;
+                case "--chunks":
+                    commandLine.chunks = true;
+                    break;
+                case "--chunk-size":
+                    long chunkSize = size(value(args, ++i, arg), arg);
+                    if (chunkSize < 64 || chunkSize > 1 << 24 || Long.bitCount(chunkSize) != 1)
+                        throw new IllegalArgumentException("选项" + arg + "的参数必须是64到16M之间的2的幂：" + args[i]);
+                    commandLine.chunkSize = (int) chunkSize;
+                    break;
+                case "--shard":
+                    String shard = value(args, ++i, arg);
+                    int slash = shard.indexOf('/');
+                    try {
+                        commandLine.shard = Integer.parseInt(shard.substring(0, Math.max(slash, 0)));
+                        commandLine.shardCount = Integer.parseInt(shard.substring(slash + 1));
+                    } catch (NumberFormatException e) {
+                        commandLine.shardCount = 0;
+                    }
+                    if (commandLine.shardCount <= 0 || commandLine.shard < 0 || commandLine.shard >= commandLine.shardCount)
+                        throw new IllegalArgumentException("选项" + arg + "的参数必须是<编号>/<总数>，编号从0开始：" + shard);
+                    break;
+                case "--merge":
+                    commandLine.merge = true;
+                    break;
+                case "--link":
+                    try {
+                        commandLine.linkMode = LinkDeduplicator.Mode.valueOf(value(args, ++i, arg).toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("无效的链接方式：" + args[i]);
+                    }
+                    break;
+                case "-f":
+                case "--format":
+                    commandLine.format = value(args, ++i, arg).toLowerCase(Locale.ROOT);
+                    if (!contains(FORMATS, commandLine.format))
+                        throw new IllegalArgumentException("无效的输出格式：" + args[i]);
+                    break;
+                case "-o":
+                case "--output":
+                    commandLine.output = new File(value(args, ++i, arg));
+                    break;
+                case "--":
+                    while (++i < args.length) commandLine.roots.add(new File(args[i]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的选项：" + arg);
+            }
+        }
+        if (!commandLine.help && commandLine.roots.isEmpty())
+            throw new IllegalArgumentException(commandLine.merge ? "缺少索引文件" : "缺少扫描目录");
+        if (commandLine.resume && commandLine.checkpointFile == null)
+            throw new IllegalArgumentException("选项--resume需要同时指定--checkpoint");
+        if (commandLine.chunks && (commandLine.linkMode != null || !"text".equals(commandLine.format)))
+            throw new IllegalArgumentException("块级查重只支持text格式，不能与--link同时使用");
+        if (commandLine.chunks && (commandLine.merge || commandLine.shardCount > 0))
+            throw new IllegalArgumentException("块级查重不能与--shard或--merge同时使用");
+        if (commandLine.merge && commandLine.shardCount > 0)
+            throw new IllegalArgumentException("选项--merge不能与--shard同时使用");
+        return commandLine;
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("用法：java com.mikkku.launcher.Launcher [选项] <目录>...");
+        out.println("      java com.mikkku.launcher.Launcher --merge [选项] <索引文件>...");
+        out.println("  -a, --algorithm <名称>         完整哈希算法，MessageDigest算法名称、XXHASH64或CRC32C（默认MD5）");
+        out.println("  --prefilter-algorithm <名称>   抽样指纹算法（默认XXHASH64）");
+        out.println("  --include <glob>               只扫描匹配的文件，可重复指定，不含路径分隔符时匹配文件名");
+        out.println("  --exclude <glob>               跳过匹配的文件，可重复指定");
+        out.println("  --min-size <大小>              跳过更小的文件，可使用K、M、G后缀");
+        out.println("  --max-size <大小>              跳过更大的文件");
+        out.println("  --walk-threads <数量>          遍历目录的线程数（默认核心数）");
+        out.println("  --io-threads <数量>            读取文件的线程数（默认核心数）");
+        out.println("  --cpu-threads <数量>           计算摘要的线程数（默认核心数）");
+        out.println("  --queue-capacity <数量>        每个阶段的队列容量（默认核心数的2倍）");
+        out.println("  --virtual-threads <数量>       每个文件使用独立的虚拟线程读取，并限制同时打开的文件数");
+        out.println("  --device-io                    按设备分别限制读取的并发数，并按inode顺序读取");
+        out.println("  --hdd-threads <数量>           按设备读取时机械硬盘的线程数（默认2）");
+        out.println("  --network-threads <数量>       按设备读取时网络文件系统的线程数（默认核心数的4倍）");
+        out.println("  --cache <文件>                 哈希缓存文件");
+        out.println("  --checkpoint <文件>            定期把扫描进度写入检查点文件，扫描正常结束后删除");
+        out.println("  --checkpoint-interval <秒>     检查点刷新到磁盘的间隔（默认30）");
+        out.println("  --resume                       从检查点恢复，跳过已遍历完的目录和已算出摘要的文件");
+        out.println("  --verify                       摘要相同的文件再逐字节比较确认");
+        out.println("  --metrics <秒>                 定期输出各阶段的吞吐量、延迟和队列深度");
+        out.println("  --jmx                          把扫描指标注册为JMX MBean");
+        out.println("  --chunks                       块级查重：按内容切分数据块，报告每个文件与最先出现这些数据块的文件共有和可释放的字节数");
+        out.println("                                 （B、C共有的数据块若最先出现在A中，只报告A与B、A与C）");
+        out.println("  --chunk-size <大小>            块级查重的平均数据块长度，2的幂（默认8K）");
+        out.println("  --shard <编号>/<总数>          只处理大小落在本分片的文件，编号从0开始，各进程扫描相同的目录");
+        out.println("  --merge                        多路归并各分片的索引文件（-f index的输出），输出全局的重复组");
+        out.println("  --link <hardlink|reflink|auto> 把重复文件替换为链接，未指定--verify时替换前逐字节比较");
+        out.println("  -f, --format <" + String.join("|", FORMATS) + "> 重复组的输出格式（默认text）");
+        out.println("  -o, --output <路径>            输出文件，vbs格式为输出目录（text默认输出到控制台，其余默认输出到当前目录）");
+        out.println("  -h, --help                     显示帮助");
+    }
+
+    ScanOptions toScanOptions() {
+        ScanOptions options = new ScanOptions(algorithm);
+        if (prefilterAlgorithm != null) options.prefilterAlgorithm(prefilterAlgorithm);
+        options.include(includes.toArray(new String[0])).exclude(excludes.toArray(new String[0]));
+        if (minSize >= 0) options.minSize(minSize);
+        if (maxSize >= 0) options.maxSize(maxSize);
+        if (walkThreads > 0) options.walkParallelism(walkThreads);
+        if (ioThreads > 0) options.ioThreads(ioThreads);
+        if (cpuThreads > 0) options.cpuThreads(cpuThreads);
+        if (queueCapacity > 0) options.queueCapacity(queueCapacity);
+        if (chunkSize > 0) options.chunkSize(chunkSize);
+        if (hddThreads > 0) options.rotationalThreads(hddThreads);
+        if (networkThreads > 0) options.networkThreads(networkThreads);
+        if (checkpointInterval > 0) options.checkpointInterval(checkpointInterval);
+        if (shardCount > 0) options.shard(shard, shardCount);
+        return options.virtualThreads(virtualThreads).deviceScheduling(deviceScheduling).cacheFile(cacheFile)
+                .checkpoint(checkpointFile).resume(resume).verify(verify).metricsInterval(metricsInterval).jmx(jmx);
+    }
+
+    File[] getRoots() {
+        return roots.toArray(new File[0]);
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    //未指定--shard时为0号分片，共1个
+    int getShard() {
+        return shard;
+    }
+
+    int getShardCount() {
+        return shardCount > 0 ? shardCount : 1;
+    }
+
+    boolean isMerge() {
+        return merge;
+    }
+
+    int getIoThreads() {
+        return ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    boolean isChunks() {
+        return chunks;
+    }
+
+    LinkDeduplicator.Mode getLinkMode() {
+        return linkMode;
+    }
+
+    boolean isVerify() {
+        return verify;
+    }
+
+    String getFormat() {
+        return format;
+    }
+
+    File getOutput() {
+        return output;
+    }
+
+    boolean isHelp() {
+        return help;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length)
+            throw new IllegalArgumentException("选项" + option + "缺少参数");
+        return args[index];
+    }
+
+    private static int count(String value, String option) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count > 0) return count;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("选项" + option + "的参数必须是正整数：" + value);
+    }
+
+    private static long size(String value, String option) {
+        long unit = 1;
+        String number = value;
+        switch (Character.toUpperCase(value.isEmpty() ? ' ' : value.charAt(value.length() - 1))) {
+            case 'K':
+                unit = 1L << 10;
+                break;
+            case 'M':
+                unit = 1L << 20;
+                break;
+            case 'G':
+                unit = 1L << 30;
+                break;
+            case 'T':
+                unit = 1L << 40;
+                break;
+        }
+        if (unit > 1) number = value.substring(0, value.length() - 1);
+        try {
+            long size = Long.parseLong(number);
+            if (size >= 0 && size <= Long.MAX_VALUE / unit) return size * unit;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("选项" + option + "的参数必须是非负的大小：" + value);
+    }
+
+    private static boolean contains(String[] values, String value) {
+        for (String element : values) if (element.equals(value)) return true;
+        return false;
+    }
+
+}
@@ -1,77 +1,239 @@
 package com.mikkku.launcher;
 
 
+import com.mikkku.action.LinkDeduplicator;
+import com.mikkku.report.ReportWriter;
+import com.mikkku.scanner.ChunkScanResult;
+import com.mikkku.scanner.ChunkScanner;
 import com.mikkku.scanner.DuplicateFileScanner;
+import com.mikkku.scanner.DuplicateGroup;
+import com.mikkku.scanner.ScanListener;
+import com.mikkku.scanner.ScanResult;
+import com.mikkku.shard.IndexMerger;
+import com.mikkku.shard.ShardIndexWriter;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Map;
-import java.util.Set;
 
 public class Launcher {
 
-    public static void main(String[] args) throws IOException {
-        // TODO: 2023/11/5 模拟数据，真实数据需要通过命令行传参
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
-        String prefix = System.getProperty("user.dir") + "\\link";
-        File linkPath = new File(prefix + formatter.format(LocalDateTime.now()));
-        while (!linkPath.mkdir())
-            linkPath = new File(prefix + formatter.format(LocalDateTime.now()));
-        File[] files = {
-                new File("E://我的收藏")
-        };
+    public static void main(String[] args) throws IOException, InterruptedException {
+        CommandLine commandLine;
+        try {
+            commandLine = CommandLine.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            CommandLine.printUsage(System.err);
+            System.exit(1);
+            return;
+        }
+        if (commandLine.isHelp()) {
+            CommandLine.printUsage(System.out);
+            return;
+        }
+        if (commandLine.isChunks()) {
+            scanChunks(commandLine);
+            return;
+        }
+        //合并模式下参数是各分片的索引文件，先打开以便尽早发现缺少或重复的分片
+        IndexMerger merger = null;
+        if (commandLine.isMerge()) {
+            List<Path> indexes = new ArrayList<>();
+            for (File file : commandLine.getRoots()) indexes.add(file.toPath());
+            try {
+                merger = new IndexMerger(indexes);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+        //重复组确认后立即写出，不必等待扫描结束
+        String format = commandLine.getFormat();
+        ReportWriter report = null;
+        ShardIndexWriter index = null;
+        PrintStream printStream = null;
+        ScanListener listener;
+        if ("index".equals(format)) {
+            //合并后的索引视为只有一个分片，可以再与其他索引合并
+            File output = commandLine.getOutput() != null ? commandLine.getOutput()
+                    : new File(commandLine.getShardCount() > 1 ? "index-" + commandLine.getShard() + ".idx" : "index.idx");
+            listener = index = merger != null ? new ShardIndexWriter(output.toPath(), merger.getAlgorithm(), 0, 1)
+                    : new ShardIndexWriter(output.toPath(), commandLine.getAlgorithm(), commandLine.getShard(), commandLine.getShardCount());
+        } else if ("jsonl".equals(format) || "csv".equals(format)) {
+            File output = commandLine.getOutput() == null ? new File("report." + format) : commandLine.getOutput();
+            report = "jsonl".equals(format) ? ReportWriter.jsonl(ReportWriter.open(output.toPath()))
+                    : ReportWriter.csv(ReportWriter.open(output.toPath()));
+            listener = report;
+        } else {
+            PrintStream out = printStream = openOutput(commandLine);
+            boolean vbs = "vbs".equals(format);
+            if (vbs) out.println("Set wss=CreateObject(\"WScript.Shell\") ");
+            int[] num = {1};
+            listener = group -> {
+                synchronized (out) {
+                    if (vbs)
+                        writeVBS(out, group, num);
+                    else
+                        writeText(out, group);
+                }
+            };
+        }
+        LinkDeduplicator deduplicator = null;
+        if (commandLine.getLinkMode() != null) {
+            //合并的索引不记录扫描时是否逐字节确认过，替换前总是比较
+            LinkDeduplicator linker = deduplicator = new LinkDeduplicator(commandLine.getLinkMode(),
+                    commandLine.isVerify() && !commandLine.isMerge(), commandLine.getIoThreads(), commandLine.getIoThreads() * 2);
+            ScanListener writer = listener;
+            listener = group -> {
+                writer.onGroup(group);
+                linker.onGroup(group);
+            };
+        }
         long begin = System.currentTimeMillis();
-        Object[] res = new DuplicateFileScanner("MD5", files).scan();
+        ScanResult res = null;
+        long directoryCount = 0;
+        double directoryRate = 0;
+        //出错时先关闭报告、索引等输出（删除不完整的临时文件）再退出
+        int status = 0;
+        try {
+            if (merger != null) {
+                res = merger.merge(listener);
+            } else {
+                try (DuplicateFileScanner scanner = new DuplicateFileScanner(commandLine.toScanOptions(), commandLine.getRoots())) {
+                    res = scanner.scan(listener);
+                    directoryCount = scanner.getDirectoryCount();
+                    directoryRate = scanner.getDirectoryRate();
+                    scanner.getMetrics().log(System.err);
+                }
+            }
+            if (report != null) report.finish(res);
+            if (index != null) index.finish();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            status = 1;
+        } catch (RuntimeException e) {
+            //结果写出失败，报告或索引不完整，不写入汇总
+            System.err.println("写出结果失败：" + e);
+            e.printStackTrace();
+            status = 4;
+        } catch (Error e) {
+            //检查点已在关闭扫描器时刷新，可以用--resume继续
+            printError(e);
+            status = 5;
+        } finally {
+            if (deduplicator != null) deduplicator.await();
+            if (merger != null) merger.close();
+            if (index != null) index.close();
+            if (report != null) report.close();
+            if (printStream != null && printStream != System.out) printStream.close();
+        }
+        if (status != 0) {
+            System.exit(status);
+            return;
+        }
         long end = System.currentTimeMillis();
-        System.out.println("未重复：" + res[0]);
-        System.out.println("重复：" + res[1]);
-        System.out.println("失败：" + res[2]);
-        System.out.println("总计：" + res[3]);
+        System.out.println("未重复：" + res.getUniqueCount());
+        System.out.println("重复：" + res.getRepeatCount());
+        System.out.println("失败：" + res.getFailCount());
+        System.out.println("总计：" + res.getFileCount());
+        System.out.println("可释放：" + res.getReclaimableBytes() + "字节");
         System.out.println("用时：" + (end - begin) + "ms");
-        @SuppressWarnings("unchecked")
-        Map<String, String> antiHashMap = (Map<String, String>) res[4];
-        @SuppressWarnings("unchecked")
-        Map<String, String> antiSizeMap = (Map<String, String>) res[5];
-        //写入到vbs脚本（创建快捷方式）
-        if (!antiHashMap.isEmpty()) {
-            File hashDir = new File(linkPath + "\\hash");
-            if (!hashDir.mkdir())
-                throw new FileAlreadyExistsException("The directory \"hash\" is already exists");
-            writeVBS(antiHashMap, hashDir);
-        }
-        if (!antiSizeMap.isEmpty()) {
-            File sizeDir = new File(linkPath + "\\size");
-            if (!sizeDir.mkdir())
-                throw new FileAlreadyExistsException("The directory \"size\" is already exists");
-            writeVBS(antiSizeMap, sizeDir);
+        if (merger == null) System.out.printf("目录：%d（%.1f个/秒）%n", directoryCount, directoryRate);
+        if (deduplicator != null)
+            System.out.printf("链接：%d（跳过%d，失败%d，释放%d字节）%n", deduplicator.getLinkedCount(),
+                    deduplicator.getSkippedCount(), deduplicator.getFailCount(), deduplicator.getReclaimedBytes());
+    }
+
+    //块级查重，每对文件输出共有字节数、可释放字节数和两个文件的路径
+    private static void scanChunks(CommandLine commandLine) throws IOException {
+        long begin = System.currentTimeMillis();
+        ChunkScanResult res;
+        long directoryCount;
+        PrintStream out = openOutput(commandLine);
+        try (ChunkScanner scanner = new ChunkScanner(commandLine.toScanOptions(), commandLine.getRoots())) {
+            res = scanner.scan(shared -> {
+                synchronized (out) {
+                    out.println(shared.getSharedBytes() + " " + shared.getReclaimableBytes());
+                    out.println("    " + shared.getFirst());
+                    out.println("    " + shared.getSecond());
+                }
+            });
+            directoryCount = scanner.getDirectoryCount();
+            scanner.getMetrics().log(System.err);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        } catch (Error e) {
+            printError(e);
+            System.exit(5);
+            return;
+        } finally {
+            if (out != System.out) out.close();
         }
+        long end = System.currentTimeMillis();
+        System.out.println("文件：" + res.getFileCount());
+        System.out.println("失败：" + res.getFailCount());
+        System.out.println("总字节数：" + res.getTotalBytes());
+        System.out.println("数据块：" + res.getChunkCount() + "（不同的" + res.getUniqueChunkCount() + "）");
+        System.out.println("可释放：" + res.getReclaimableBytes() + "字节");
+        System.out.println("用时：" + (end - begin) + "ms");
+        System.out.println("目录：" + directoryCount);
     }
 
-    private static void writeVBS(Map<String, String> map, File dir) {
-        try (PrintStream printStream = new PrintStream(dir + "\\make_link.vbs")) {
-            int num = 1;
-            Set<String> set = map.keySet();
-            printStream.println("Set wss=CreateObject(\"WScript.Shell\") ");
-            for (String str : set) {
-                String[] props = str.split("\\\\", 0);
-                printStream.println("Set s=wss.CreateShortcut(\"" +
-                        props[0] +
-                        "_" + num + "_" +
-                        props[props.length - 1] +
-                        ".lnk\")");
-                printStream.println("s.TargetPath=\"" +
-                        str.substring(props[0].length() + 1) +
-                        "\"");
-                printStream.println("s.Save");
-                num++;
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    private static void printError(Error error) {
+        if (error instanceof OutOfMemoryError)
+            System.err.println("内存空间不足！");
+        else
+            System.err.println("扫描出错：" + error);
+        error.printStackTrace();
+    }
+
+    //text格式默认输出到控制台，vbs格式默认输出到当前目录下新建的link+时间目录
+    private static PrintStream openOutput(CommandLine commandLine) throws IOException {
+        File output = commandLine.getOutput();
+        if (!"vbs".equals(commandLine.getFormat()))
+            return output == null ? System.out : new PrintStream(output, "UTF-8");
+        if (output == null) {
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+            File linkPath = new File(System.getProperty("user.dir"), "link" + formatter.format(LocalDateTime.now()));
+            while (!linkPath.mkdir())
+                linkPath = new File(System.getProperty("user.dir"), "link" + formatter.format(LocalDateTime.now()));
+            output = new File(linkPath, "hash");
+            if (!output.mkdir())
+                throw new FileAlreadyExistsException("The directory \"hash\" is already exists");
+        } else if (!output.isDirectory() && !output.mkdirs())
+            throw new FileNotFoundException("The directory \"" + output + "\" can not be created");
+        return new PrintStream(new File(output, "make_link.vbs"));
+    }
+
+    private static void writeText(PrintStream printStream, DuplicateGroup group) {
+        printStream.println(group.getHash() + " " + group.getSize());
+        for (Path file : group.getFiles()) printStream.println("    " + file);
+    }
+
+    //写入到vbs脚本（创建快捷方式）
+    private static void writeVBS(PrintStream printStream, DuplicateGroup group, int[] num) {
+        for (Path file : group.getFiles()) {
+            printStream.println("Set s=wss.CreateShortcut(\"" +
+                    group.getHash() +
+                    "_" + num[0] + "_" +
+                    file.getFileName() +
+                    ".lnk\")");
+            printStream.println("s.TargetPath=\"" +
+                    file +
+                    "\"");
+            printStream.println("s.Save");
+            num[0]++;
         }
     }
 }
@@ -0,0 +1,81 @@
+package com.mikkku.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数-线性分桶的延迟直方图（与HdrHistogram相同的思路）：小于128的值每个值一个桶，
+ * 之后每个2的幂区间再均分为64个桶，相对误差不超过1/64，记录只需一次原子加，多个线程可以同时记录。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) if (counts.get(i) > 0) return upperBound(i);
+        return 0;
+    }
+
+    //percentile取值0~100，返回所在桶的上界
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) total += snapshot[i] = counts.get(i);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        for (int i = 0; i < BUCKETS; i++) if ((rank -= snapshot[i]) <= 0) return upperBound(i);
+        return getMax();
+    }
+
+    //把other中的记录累加到当前直方图，用于合并各线程单独记录的直方图
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) counts.addAndGet(i, count);
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS * 2) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS * 2) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (index - shift * SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.mikkku.metrics;
+
+import com.mikkku.concurrent.StageExecutor;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一次扫描的全部指标：各阶段的吞吐量、延迟和队列深度，抽样筛选跳过的字节数和命中缓存的字节数。
+ * 可以定期输出日志行，也可以注册为JMX MBean，在扫描过程中用jconsole等工具查看。
+ */
+public class ScanMetrics implements ScanMetricsMBean {
+
+    private static final String DOMAIN = "com.mikkku.scanner";
+    private static final double MEGABYTE = 1024 * 1024;
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final int id = ids.incrementAndGet();
+    private final long begin = System.nanoTime();
+    private final List<StageMetrics> stages = new CopyOnWriteArrayList<>();
+    private final List<ObjectName> names = new CopyOnWriteArrayList<>();
+    private final LongAdder skippedBytes = new LongAdder();
+    private final LongAdder cachedBytes = new LongAdder();
+    private ScheduledExecutorService logger;
+
+    public StageMetrics stage(String name, StageExecutor executor) {
+        StageMetrics stage = new StageMetrics(name, executor);
+        stages.add(stage);
+        return stage;
+    }
+
+    public List<StageMetrics> getStages() {
+        return stages;
+    }
+
+    //未读取的字节数，负数表示之前跳过的文件又需要读取
+    public void addSkippedBytes(long bytes) {
+        skippedBytes.add(bytes);
+    }
+
+    public void addCachedBytes(long bytes) {
+        cachedBytes.add(bytes);
+    }
+
+    @Override
+    public long getSkippedBytes() {
+        return skippedBytes.sum();
+    }
+
+    @Override
+    public long getCachedBytes() {
+        return cachedBytes.sum();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+    }
+
+    //每隔period输出一次各阶段的指标
+    public synchronized void startLogging(long period, TimeUnit unit, PrintStream out) {
+        if (logger != null) return;
+        logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-" + id);
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.scheduleAtFixedRate(() -> log(out), period, period, unit);
+    }
+
+    public synchronized void stopLogging() {
+        if (logger == null) return;
+        logger.shutdown();
+        logger = null;
+    }
+
+    public void log(PrintStream out) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("[%.1fs] 跳过：%.1fMB，缓存：%.1fMB%n", getElapsedMillis() / 1000.0,
+                getSkippedBytes() / MEGABYTE, getCachedBytes() / MEGABYTE));
+        for (StageMetrics stage : stages) builder.append("    ").append(stage).append(System.lineSeparator());
+        out.print(builder);
+    }
+
+    //注册到平台MBeanServer，同一进程中的多次扫描以id区分
+    public void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(DOMAIN + ":type=Scan,id=" + id);
+        server.registerMBean(this, name);
+        names.add(name);
+        for (StageMetrics stage : stages) {
+            name = new ObjectName(DOMAIN + ":type=Stage,id=" + id + ",name=" + ObjectName.quote(stage.getName()));
+            server.registerMBean(stage, name);
+            names.add(name);
+        }
+    }
+
+    public void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : names)
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ignored) {
+            }
+        names.clear();
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.mikkku.metrics;
+
+/**
+ * 通过JMX查看的整个扫描的指标，各阶段的指标另外注册。
+ */
+public interface ScanMetricsMBean {
+
+    long getSkippedBytes();
+
+    long getCachedBytes();
+
+    long getElapsedMillis();
+
+}
@@ -0,0 +1,114 @@
+package com.mikkku.metrics;
+
+import com.mikkku.concurrent.StageExecutor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个阶段的处理文件数、字节数和每个文件的处理延迟，速率按从创建到当前的时间计算。
+ */
+public class StageMetrics implements StageMetricsMBean {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private final String name;
+    private final StageExecutor stage;
+    private final long begin = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    //stage为null时队列深度和活跃线程数为0
+    public StageMetrics(String name, StageExecutor stage) {
+        this.name = name;
+        this.stage = stage;
+    }
+
+    public void record(long bytes, long nanos) {
+        files.increment();
+        this.bytes.add(bytes);
+        latency.record(nanos);
+    }
+
+    //没有延迟可言的阶段（如遍历）只记录数量
+    public void record(long bytes) {
+        files.increment();
+        this.bytes.add(bytes);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return files.sum() / seconds();
+    }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        return bytes.sum() / MEGABYTE / seconds();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return latency.getMean() / 1000;
+    }
+
+    @Override
+    public long getP50LatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(50));
+    }
+
+    @Override
+    public long getP99LatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(99));
+    }
+
+    @Override
+    public long getMaxLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(latency.getMax());
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return stage == null ? 0 : stage.getQueueDepth();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return stage == null ? 0 : stage.getActiveCount();
+    }
+
+    @Override
+    public String toString() {
+        String text = String.format("%s：%d个（%.1f个/秒，%.1fMB/秒）", name, getFiles(), getFilesPerSecond(),
+                getMegabytesPerSecond());
+        if (latency.getCount() > 0)
+            text += String.format("，延迟p50=%dus p99=%dus max=%dus", getP50LatencyMicros(), getP99LatencyMicros(),
+                    getMaxLatencyMicros());
+        if (stage != null) text += String.format("，队列%d，活跃%d", getQueueDepth(), getActiveCount());
+        return text;
+    }
+
+    private double seconds() {
+        return Math.max(System.nanoTime() - begin, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+}
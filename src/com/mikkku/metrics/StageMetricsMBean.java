@@ -0,0 +1,30 @@
+package com.mikkku.metrics;
+
+/**
+ * 通过JMX查看的单个阶段的指标，延迟单位为微秒。
+ */
+public interface StageMetricsMBean {
+
+    String getName();
+
+    long getFiles();
+
+    long getBytes();
+
+    double getFilesPerSecond();
+
+    double getMegabytesPerSecond();
+
+    double getMeanLatencyMicros();
+
+    long getP50LatencyMicros();
+
+    long getP99LatencyMicros();
+
+    long getMaxLatencyMicros();
+
+    int getQueueDepth();
+
+    int getActiveCount();
+
+}
@@ -0,0 +1,260 @@
+package com.mikkku.report;
+
+import com.mikkku.scanner.DuplicateGroup;
+import com.mikkku.scanner.ScanListener;
+import com.mikkku.scanner.ScanResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 边扫描边写出重复组的报告：每个重复组确认后立即编码到固定大小的缓冲区，缓冲区满或距上次写出超过一秒时写入通道
+ * （后台线程每秒检查一次，两个重复组之间间隔很长时也能及时写出），
+ * 内存占用与重复组的数量无关，其他程序可以像tail -f一样持续读取报告。扫描结束后调用finish写入汇总行。
+ * 任何一次写出失败后报告已不完整，之后的onGroup和finish都抛出该异常，不会写入看似完整的汇总行。
+ */
+public abstract class ReportWriter implements ScanListener, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder();
+    private long groupCount;
+    private long fileCount;
+    private long reclaimableBytes;
+    private long lastFlush = System.nanoTime();
+    private IOException failure;
+    private final ScheduledExecutorService flusher;
+
+    protected ReportWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "report-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushIfIdle, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.NANOSECONDS);
+    }
+
+    //每行一个JSON对象
+    public static ReportWriter jsonl(WritableByteChannel channel) {
+        return new JsonlWriter(channel);
+    }
+
+    //每个文件一行，同组的文件组号相同
+    public static ReportWriter csv(WritableByteChannel channel) {
+        return new CsvWriter(channel);
+    }
+
+    public static WritableByteChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public synchronized void onGroup(DuplicateGroup group) {
+        if (failure != null) throw new UncheckedIOException(failure);
+        groupCount++;
+        fileCount += group.getFiles().size();
+        reclaimableBytes += group.getReclaimableBytes();
+        line.setLength(0);
+        appendGroup(line, groupCount, group);
+        try {
+            write(line);
+            if (System.nanoTime() - lastFlush > FLUSH_INTERVAL) flush();
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //写入汇总行并写出缓冲区中的全部数据
+    public synchronized void finish(ScanResult result) throws IOException {
+        if (failure != null) throw failure;
+        line.setLength(0);
+        appendSummary(line, groupCount, fileCount, reclaimableBytes, result);
+        write(line);
+        flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    protected abstract void appendGroup(StringBuilder line, long number, DuplicateGroup group);
+
+    protected abstract void appendSummary(StringBuilder line, long groupCount, long fileCount, long reclaimableBytes,
+                                          ScanResult result);
+
+    private void write(CharSequence chars) throws IOException {
+        CharBuffer input = CharBuffer.wrap(chars);
+        encoder.reset();
+        //缓冲区满时先写出再继续编码，单行可以超过缓冲区大小
+        CoderResult result;
+        while ((result = encoder.encode(input, buffer, true)).isOverflow()) flush();
+        if (result.isError()) result.throwException();
+        while (encoder.flush(buffer).isOverflow()) flush();
+    }
+
+    //距上次写出超过一秒且缓冲区中有数据时写出
+    private synchronized void flushIfIdle() {
+        if (failure != null || buffer.position() == 0 || !channel.isOpen() || System.nanoTime() - lastFlush < FLUSH_INTERVAL) return;
+        try {
+            flush();
+        } catch (IOException e) {
+            failure = e;
+            e.printStackTrace();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+        lastFlush = System.nanoTime();
+    }
+
+    private static class JsonlWriter extends ReportWriter {
+
+        public JsonlWriter(WritableByteChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        protected void appendGroup(StringBuilder line, long number, DuplicateGroup group) {
+            List<Path> files = group.getFiles();
+            line.append("{\"type\":\"group\",\"group\":").append(number)
+                    .append(",\"hash\":\"").append(group.getHash())
+                    .append("\",\"size\":").append(group.getSize())
+                    .append(",\"count\":").append(files.size())
+                    .append(",\"reclaimable\":").append(group.getReclaimableBytes())
+                    .append(",\"files\":[");
+            for (int i = 0; i < files.size(); i++) {
+                if (i > 0) line.append(',');
+                quote(line, files.get(i).toString());
+            }
+            line.append("]}\n");
+        }
+
+        @Override
+        protected void appendSummary(StringBuilder line, long groupCount, long fileCount, long reclaimableBytes,
+                                     ScanResult result) {
+            line.append("{\"type\":\"summary\",\"groups\":").append(groupCount)
+                    .append(",\"duplicates\":").append(fileCount)
+                    .append(",\"reclaimable\":").append(reclaimableBytes)
+                    .append(",\"unique\":").append(result.getUniqueCount())
+                    .append(",\"repeat\":").append(result.getRepeatCount())
+                    .append(",\"fail\":").append(result.getFailCount())
+                    .append(",\"total\":").append(result.getFileCount())
+                    .append("}\n");
+        }
+
+        private static void quote(StringBuilder line, String value) {
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        line.append("\\\"");
+                        break;
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20)
+                            line.append(String.format("\\u%04x", (int) c));
+                        else
+                            line.append(c);
+                }
+            }
+            line.append('"');
+        }
+    }
+
+    /**
+     * 列：type,group,hash,size,reclaimable,path,groups,duplicates,unique,repeat,fail,total，
+     * 文件行只填前六列，汇总行只填reclaimable和后六列，每列在两种行中的含义不变。
+     */
+    private static class CsvWriter extends ReportWriter {
+
+        private boolean header;
+
+        public CsvWriter(WritableByteChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        protected void appendGroup(StringBuilder line, long number, DuplicateGroup group) {
+            appendHeader(line);
+            for (Path file : group.getFiles()) {
+                line.append("file,").append(number).append(',').append(group.getHash())
+                        .append(',').append(group.getSize()).append(',').append(group.getReclaimableBytes()).append(',');
+                quote(line, file.toString());
+                line.append(",,,,,,\n");
+            }
+        }
+
+        @Override
+        protected void appendSummary(StringBuilder line, long groupCount, long fileCount, long reclaimableBytes,
+                                     ScanResult result) {
+            appendHeader(line);
+            line.append("summary,,,,").append(reclaimableBytes).append(",,").append(groupCount)
+                    .append(',').append(fileCount).append(',').append(result.getUniqueCount())
+                    .append(',').append(result.getRepeatCount()).append(',').append(result.getFailCount())
+                    .append(',').append(result.getFileCount()).append('\n');
+        }
+
+        private void appendHeader(StringBuilder line) {
+            if (header) return;
+            header = true;
+            line.append("type,group,hash,size,reclaimable,path,groups,duplicates,unique,repeat,fail,total\n");
+        }
+
+        private static void quote(StringBuilder line, String value) {
+            boolean quoted = false;
+            for (int i = 0; i < value.length() && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quoted) {
+                line.append(value);
+                return;
+            }
+            line.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+}
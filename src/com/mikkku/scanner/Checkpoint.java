@@ -0,0 +1,419 @@
+package com.mikkku.scanner;
+
+import com.mikkku.concurrent.RingBuffer;
+import com.mikkku.concurrent.WaitStrategy;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 扫描的检查点：以追加日志的形式记录已遍历的文件（大小、修改时间、文件标识）、已遍历完的子目录和已算出的完整摘要，
+ * 目录路径只写一次，文件按目录编号和文件名记录。记录先放入队列，由后台线程写入并定期刷新到磁盘，不阻塞扫描线程。
+ * 恢复时跳过已遍历完的子目录，其中的文件按记录的属性重新加入扫描，已有摘要的文件不再读取；
+ * 恢复前后被修改的文件以检查点中的记录为准，处理重复文件前应再次检查（LinkDeduplicator会检查）。
+ * 检查点记录了算法、扫描目录和过滤条件，只能以相同的条件恢复。
+ * 扫描正常结束后删除检查点，异常退出（包括Ctrl-C）时刷新已写入的记录。
+ */
+public class Checkpoint implements Closeable {
+
+    private static final int MAGIC = 0x4D435031;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final byte DIRECTORY = 'R';
+    private static final byte FILE = 'F';
+    private static final byte COMPLETED = 'D';
+    private static final byte DIGEST = 'H';
+    //关闭时放入队列，后台线程写完之前的记录后退出
+    private static final Record STOP = new Record((byte) 0, null, null, 0, 0, null, null);
+
+    private final File file;
+    private final String algorithm;
+    private final String[] roots;
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final long minSize;
+    private final long maxSize;
+    private final long intervalNanos;
+    //恢复时读取的记录
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+    //以下只由后台线程访问
+    private final Map<String, Integer> directories = new HashMap<>();
+    private DataOutputStream out;
+    private FileOutputStream fileOut;
+    private final RingBuffer<Record> queue = new RingBuffer<>(QUEUE_CAPACITY, WaitStrategy::blocking);
+    private Thread writer;
+    private Thread hook;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private Checkpoint(File file, String algorithm, File[] roots, ScanOptions options) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.algorithm = algorithm;
+        this.roots = new String[roots.length];
+        for (int i = 0; i < roots.length; i++) this.roots[i] = roots[i].getAbsolutePath();
+        includes = options.getIncludes();
+        excludes = options.getExcludes();
+        minSize = options.getMinSize();
+        maxSize = options.getMaxSize();
+        intervalNanos = TimeUnit.SECONDS.toNanos(options.getCheckpointInterval());
+        if (options.isResume() && this.file.exists()) load();
+        //重写一次：去掉重复的记录和中断时写入不完整的最后一条记录
+        rewrite();
+        fileOut = new FileOutputStream(this.file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+    }
+
+    /**
+     * 打开options指定的检查点：指定了恢复且检查点存在时读取其中的记录并继续追加，否则新建检查点。
+     * 检查点的算法、扫描目录或过滤条件与本次不一致时抛出IllegalArgumentException。
+     */
+    public static Checkpoint open(String algorithm, File[] roots, ScanOptions options) throws IOException {
+        Checkpoint checkpoint = new Checkpoint(options.getCheckpointFile(), algorithm, roots, options);
+        checkpoint.start();
+        return checkpoint;
+    }
+
+    //构造完成后才启动后台线程和关闭时的hook，线程不会看到未初始化完的对象
+    private void start() {
+        writer = new Thread(this::write, "checkpoint");
+        writer.setDaemon(true);
+        writer.start();
+        hook = new Thread(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "checkpoint-hook");
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    //dir及其所有子目录都已在之前的扫描中遍历完
+    public boolean isCompleted(Path dir) {
+        return completed.contains(dir.toString());
+    }
+
+    //之前遍历过、位于已遍历完的子目录中的文件，恢复时不再遍历这些目录，按记录的属性加入扫描
+    public void forEachCompletedFile(FileVisitor action) {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Path path = Paths.get(entry.getKey());
+            for (Path dir = path.getParent(); dir != null; dir = dir.getParent())
+                if (completed.contains(dir.toString())) {
+                    action.visit(path, entry.getValue());
+                    break;
+                }
+        }
+    }
+
+    public interface FileVisitor {
+        void visit(Path file, BasicFileAttributes attributes);
+    }
+
+    //之前已算出的完整摘要，大小或修改时间不一致时返回null
+    public byte[] getDigest(Path file, BasicFileAttributes attributes) {
+        Entry entry = entries.get(file.toString());
+        if (entry == null || entry.digest == null || entry.size != attributes.size()
+                || entry.lastModified != attributes.lastModifiedTime().toMillis())
+            return null;
+        return entry.digest;
+    }
+
+    public void walked(Path file, BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        enqueue(new Record(FILE, file.getParent(), file.getFileName().toString(), attributes.size(),
+                attributes.lastModifiedTime().toMillis(), fileKey == null ? "" : fileKey.toString(), null));
+    }
+
+    public void completed(Path dir) {
+        if (!completed.contains(dir.toString())) enqueue(new Record(COMPLETED, dir, null, 0, 0, null, null));
+    }
+
+    public void digested(Path file, byte[] digest) {
+        enqueue(new Record(DIGEST, file.getParent(), file.getFileName().toString(), 0, 0, null, digest));
+    }
+
+    //写入并刷新已放入队列的记录，保留检查点文件
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            queue.put(STOP);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException ignored) {
+            //正在退出，当前就在执行hook
+        }
+        if (failure != null) throw failure;
+    }
+
+    //扫描正常结束，不再需要恢复
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    //队列满时等待后台线程写出，关闭后的记录直接丢弃
+    private void enqueue(Record record) {
+        try {
+            while (!closed) if (queue.offer(record, 100, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        long flushed = System.nanoTime();
+        try {
+            while (true) {
+                Record record = queue.poll(intervalNanos, TimeUnit.NANOSECONDS);
+                if (record == STOP) break;
+                if (record != null) {
+                    write(record);
+                    boolean[] stop = new boolean[1];
+                    while (!stop[0] && queue.drain(next -> {
+                        if (next == STOP)
+                            stop[0] = true;
+                        else if (!stop[0])
+                            write(next);
+                    }, 1024) > 0) ;
+                    if (stop[0]) break;
+                }
+                if (System.nanoTime() - flushed >= intervalNanos) {
+                    flush();
+                    flushed = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (UncheckedIOException e) {
+            failure = e.getCause();
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            try {
+                flush();
+                out.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        out.flush();
+        fileOut.getFD().sync();
+    }
+
+    private void write(Record record) {
+        try {
+            if (record.type == COMPLETED) {
+                if (completed.add(record.dir.toString())) {
+                    int dir = directory(record.dir.toString());
+                    out.writeByte(COMPLETED);
+                    out.writeInt(dir);
+                }
+                return;
+            }
+            int dir = directory(record.dir.toString());
+            out.writeByte(record.type);
+            out.writeInt(dir);
+            out.writeUTF(record.name);
+            if (record.type == FILE) {
+                out.writeLong(record.size);
+                out.writeLong(record.lastModified);
+                out.writeUTF(record.fileKey);
+            } else {
+                out.writeShort(record.digest.length);
+                out.write(record.digest);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //目录第一次出现时写入目录记录，编号为写入的顺序
+    private int directory(String path) throws IOException {
+        Integer id = directories.get(path);
+        if (id != null) return id;
+        id = directories.size();
+        directories.put(path, id);
+        out.writeByte(DIRECTORY);
+        out.writeUTF(path);
+        return id;
+    }
+
+    private void load() throws IOException {
+        List<String> dirs = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(algorithm) || !Arrays.equals(readStrings(in), roots))
+                throw new IllegalArgumentException("The checkpoint " + file + " was created with a different algorithm or roots!");
+            if (!Arrays.asList(readStrings(in)).equals(includes) || !Arrays.asList(readStrings(in)).equals(excludes)
+                    || in.readLong() != minSize || in.readLong() != maxSize)
+                throw new IllegalArgumentException("The checkpoint " + file + " was created with different filters!");
+            while (true) {
+                int type = in.read();
+                if (type == -1) return;
+                if (type == DIRECTORY) {
+                    dirs.add(in.readUTF());
+                } else if (type == COMPLETED) {
+                    completed.add(dirs.get(in.readInt()));
+                } else if (type == FILE) {
+                    String path = dirs.get(in.readInt()) + File.separator + in.readUTF();
+                    long size = in.readLong(), lastModified = in.readLong();
+                    Entry entry = new Entry(size, lastModified, in.readUTF());
+                    Entry previous = entries.put(path, entry);
+                    if (previous != null && previous.size == size && previous.lastModified == lastModified)
+                        entry.digest = previous.digest;
+                } else if (type == DIGEST) {
+                    String path = dirs.get(in.readInt()) + File.separator + in.readUTF();
+                    byte[] digest = new byte[in.readUnsignedShort()];
+                    in.readFully(digest);
+                    Entry entry = entries.get(path);
+                    if (entry != null) entry.digest = digest;
+                } else
+                    throw new StreamCorruptedException("Unknown checkpoint record type " + type);
+            }
+        } catch (EOFException e) {
+            //中断时最后一条记录写入不完整，丢弃
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) strings[i] = in.readUTF();
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) out.writeUTF(string);
+    }
+
+    private void rewrite() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpFileOut = new FileOutputStream(tmpFile)) {
+            out = new DataOutputStream(new BufferedOutputStream(tmpFileOut, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeUTF(algorithm);
+            writeStrings(out, Arrays.asList(roots));
+            writeStrings(out, includes);
+            writeStrings(out, excludes);
+            out.writeLong(minSize);
+            out.writeLong(maxSize);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Path path = Paths.get(entry.getKey());
+                Entry value = entry.getValue();
+                write(new Record(FILE, path.getParent(), path.getFileName().toString(), value.size,
+                        value.lastModified, value.fileKey, null));
+                if (value.digest != null)
+                    write(new Record(DIGEST, path.getParent(), path.getFileName().toString(), 0, 0, null, value.digest));
+            }
+            Set<String> completed = new HashSet<>(this.completed);
+            this.completed.clear();
+            for (String dir : completed) write(new Record(COMPLETED, Paths.get(dir), null, 0, 0, null, null));
+            out.flush();
+            tmpFileOut.getFD().sync();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Record {
+
+        private final byte type;
+        private final Path dir;
+        private final String name;
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private final byte[] digest;
+
+        public Record(byte type, Path dir, String name, long size, long lastModified, String fileKey, byte[] digest) {
+            this.type = type;
+            this.dir = dir;
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.digest = digest;
+        }
+    }
+
+    //检查点中记录的文件属性，恢复时代替重新读取的属性
+    private static class Entry implements BasicFileAttributes {
+
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private volatile byte[] digest;
+
+        public Entry(long size, long lastModified, String fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(lastModified);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        //与UnixFileKey的toString相同，没有文件标识时返回null
+        @Override
+        public Object fileKey() {
+            return fileKey.isEmpty() ? null : fileKey;
+        }
+    }
+
+}
@@ -0,0 +1,12 @@
+package com.mikkku.scanner;
+
+/**
+ * 接收块级查重的结果。每个文件分块完成后立即通知它与其他文件共有的数据块，
+ * 回调在流水线线程中执行，可能被多个线程同时调用。
+ */
+@FunctionalInterface
+public interface ChunkListener {
+
+    void onShared(SharedChunks shared);
+
+}
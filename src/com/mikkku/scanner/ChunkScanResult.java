@@ -0,0 +1,52 @@
+package com.mikkku.scanner;
+
+/**
+ * 块级查重的统计结果。
+ */
+public class ChunkScanResult {
+
+    private final int fileCount;
+    private final int failCount;
+    private final long totalBytes;
+    private final long chunkCount;
+    private final long uniqueChunkCount;
+    private final long reclaimableBytes;
+
+    public ChunkScanResult(int fileCount, int failCount, long totalBytes, long chunkCount, long uniqueChunkCount,
+                           long reclaimableBytes) {
+        this.fileCount = fileCount;
+        this.failCount = failCount;
+        this.totalBytes = totalBytes;
+        this.chunkCount = chunkCount;
+        this.uniqueChunkCount = uniqueChunkCount;
+        this.reclaimableBytes = reclaimableBytes;
+    }
+
+    //成功分块的文件数
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getFailCount() {
+        return failCount;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getChunkCount() {
+        return chunkCount;
+    }
+
+    //不同数据块的个数
+    public long getUniqueChunkCount() {
+        return uniqueChunkCount;
+    }
+
+    //每个不同的数据块只保存一份时可以释放的字节数
+    public long getReclaimableBytes() {
+        return reclaimableBytes;
+    }
+
+}
@@ -0,0 +1,388 @@
+package com.mikkku.scanner;
+
+import com.mikkku.concurrent.ObjectPool;
+import com.mikkku.concurrent.StageExecutor;
+import com.mikkku.hash.FastCdc;
+import com.mikkku.hash.HashEngine;
+import com.mikkku.hash.Hasher;
+import com.mikkku.index.ChunkIndex;
+import com.mikkku.index.PathArena;
+import com.mikkku.metrics.ScanMetrics;
+import com.mikkku.metrics.StageMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+
+/**
+ * 块级查重：用FastCDC把文件切分为变长数据块，并行计算每个数据块的摘要并记录到ChunkIndex，
+ * 找出内容大部分相同但不完全相同的文件（虚拟机镜像、数据库备份、编辑过的视频工程等）。
+ * 读取线程顺序读取并切分，每个缓冲区中的数据块交给摘要线程计算，各阶段的队列有界，
+ * 在途的缓冲区数量有上限；每个文件处理完后立即通知它与其他文件共有的字节数，不保留文件之间的关系。
+ * 常驻内存的只有数据块索引和路径，与不同数据块的个数成正比，每个在途文件只按共有数据块的所属文件计数。
+ * 每个数据块只归属于最先出现它的文件，只报告文件与数据块所属文件之间的共有字节数：
+ * B和C都含有A最先出现的数据块时，报告(A,B)和(A,C)，不报告(B,C)。
+ */
+public class ChunkScanner implements Closeable {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final HashEngine engine;
+    private final FastCdc chunker;
+    private final File[] files;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final long minSize;
+    private final long maxSize;
+    private final Devices devices;
+    private final StageExecutor readStage;
+    private final StageExecutor digestStage;
+    private final ObjectPool<Hasher> hashers;
+    private final ObjectPool<ByteBuffer> buffers;
+    private final ParallelFileScanner fileScanner;
+    private final AtomicLong pending = new AtomicLong(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+    //使扫描无法继续的错误（如内存不足），扫描线程被唤醒后抛出
+    private volatile Error failure;
+    private final AtomicInteger fileCount = new AtomicInteger();
+    private final AtomicInteger failCount = new AtomicInteger();
+    private final LongAdder totalBytes = new LongAdder();
+    private final LongAdder chunkCount = new LongAdder();
+    private final LongAdder reclaimableBytes = new LongAdder();
+    private final PathArena paths = new PathArena();
+    private final ChunkIndex chunkIndex;
+    private ChunkListener listener;
+    private final ScanMetrics metrics = new ScanMetrics();
+    private final StageMetrics readMetrics;
+    private final StageMetrics hashMetrics;
+    private final long metricsInterval;
+
+    public ChunkScanner(ScanOptions options, File... files) {
+        engine = HashEngine.of(options.getAlgorithm());
+        chunkIndex = new ChunkIndex(engine.newHasher().digest().length);
+        chunker = new FastCdc(options.getChunkSize());
+        this.files = files;
+        includes = DuplicateFileScanner.matchers(options.getIncludes());
+        excludes = DuplicateFileScanner.matchers(options.getExcludes());
+        minSize = Math.max(1, options.getMinSize());
+        maxSize = options.getMaxSize();
+        //遍历 -> 读取并切分 -> 摘要，只向后一阶段提交
+        devices = options.isDeviceScheduling() && options.getMaxOpenFiles() == 0 ? new Devices() : null;
+        if (options.getMaxOpenFiles() > 0)
+            readStage = StageExecutor.perTask("read", options.getMaxOpenFiles());
+        else if (devices != null)
+            readStage = StageExecutor.perDevice("read", device -> DuplicateFileScanner.deviceThreads(options, device),
+                    DuplicateFileScanner.DEVICE_QUEUE_CAPACITY);
+        else
+            readStage = StageExecutor.pooled("read", options.getIoThreads(), options.getQueueCapacity());
+        digestStage = StageExecutor.pooled("chunk", options.getCpuThreads(), options.getQueueCapacity());
+        readMetrics = metrics.stage("read", readStage);
+        hashMetrics = metrics.stage("chunk", digestStage);
+        metricsInterval = options.getMetricsInterval();
+        if (options.isJmx())
+            try {
+                metrics.registerMBeans();
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        //缓冲区至少能容纳两个最长的数据块，未切分的尾部复制到下一个缓冲区后仍有空间读入新数据
+        int bufferSize = Math.max(BLOCK_SIZE, chunker.getMaxSize() * 2);
+        int poolCapacity = options.getIoThreads() * 2 + options.getQueueCapacity() + options.getCpuThreads();
+        hashers = new ObjectPool<>(poolCapacity, engine::newHasher);
+        buffers = new ObjectPool<>(poolCapacity, () -> ByteBuffer.allocateDirect(bufferSize));
+        fileScanner = new ParallelFileScanner(options.getWalkParallelism()) {
+
+            @Override
+            protected void operate(Path file, BasicFileAttributes attributes) {
+                if (attributes.size() < minSize || attributes.size() > maxSize) return;
+                if (DuplicateFileScanner.matches(excludes, file)) return;
+                if (!includes.isEmpty() && !DuplicateFileScanner.matches(includes, file)) return;
+                execute(readStage, new ReadThread(new FileChunks(paths.intern(file), file)),
+                        devices == null ? null : devices.resolve(file, attributes), Devices.inode(attributes));
+            }
+        };
+    }
+
+    public ChunkScanResult scan(ChunkListener listener) {
+        this.listener = listener;
+        if (metricsInterval > 0) metrics.startLogging(metricsInterval, TimeUnit.SECONDS, System.err);
+        for (File file : files)
+            try {
+                fileScanner.scanFiles(file.toPath());
+            } catch (FileNotFoundException e) {
+                System.err.println("路径不存在：" + file);
+            } catch (IOException e) {
+                System.err.println("遍历失败：" + file);
+                e.printStackTrace();
+            }
+        fileScanner.shutdown();
+        complete();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            readStage.shutdown();
+            digestStage.shutdown();
+            metrics.stopLogging();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The scan is interrupted");
+        }
+        if (failure != null) {
+            readStage.shutdown();
+            digestStage.shutdown();
+            metrics.stopLogging();
+            throw failure;
+        }
+        readStage.shutdown();
+        digestStage.shutdown();
+        metrics.stopLogging();
+        try {
+            if (readStage.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS)
+                    && digestStage.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS))
+                return new ChunkScanResult(fileCount.get(), failCount.get(), totalBytes.sum(), chunkCount.sum(),
+                        chunkIndex.size(), reclaimableBytes.sum());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The scan is interrupted");
+        }
+        return null;
+    }
+
+    public long getDirectoryCount() {
+        return fileScanner.getDirectoryCount();
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        metrics.unregisterMBeans();
+    }
+
+    private void execute(StageExecutor stage, Runnable task) {
+        execute(stage, task, null, 0);
+    }
+
+    private void execute(StageExecutor stage, Runnable task, Object device, long order) {
+        pending.incrementAndGet();
+        stage.execute(() -> {
+            try {
+                task.run();
+            } catch (Error error) {
+                //唤醒扫描线程，由它停止扫描并抛出
+                failure = error;
+                done.countDown();
+            } finally {
+                complete();
+            }
+        }, device, order);
+    }
+
+    private void complete() {
+        if (pending.decrementAndGet() == 0) done.countDown();
+    }
+
+    //从当前位置读满缓冲区，返回是否已到达文件末尾
+    private static boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) if (channel.read(buffer) == -1) return true;
+        return false;
+    }
+
+    private class ReadThread implements Runnable {
+
+        private final FileChunks chunks;
+
+        public ReadThread(FileChunks chunks) {
+            this.chunks = chunks;
+        }
+
+        //1.顺序读取文件并切分，每个缓冲区中完整的数据块提交给摘要线程，不完整的尾部复制到下一个缓冲区
+        @Override
+        public void run() {
+            long begin = System.nanoTime(), bytes = 0;
+            ByteBuffer block = buffers.acquire();
+            block.clear();
+            try (FileChannel channel = FileChannel.open(chunks.file, StandardOpenOption.READ)) {
+                boolean end;
+                do {
+                    end = fill(channel, block);
+                    block.flip();
+                    int[] ends = new int[16];
+                    int count = 0, offset = 0;
+                    for (int length; (length = chunker.next(block, offset, block.limit(), end)) > 0; ) {
+                        if (count == ends.length) ends = Arrays.copyOf(ends, count * 2);
+                        ends[count++] = offset += length;
+                    }
+                    bytes += offset;
+                    ByteBuffer next = buffers.acquire();
+                    next.clear();
+                    ByteBuffer tail = block.duplicate();
+                    tail.position(offset);
+                    next.put(tail);
+                    if (count > 0) {
+                        chunks.begin();
+                        execute(digestStage, new DigestThread(chunks, block, Arrays.copyOf(ends, count)));
+                    } else
+                        buffers.release(block);
+                    block = next;
+                } while (!end);
+                readMetrics.record(bytes, System.nanoTime() - begin);
+                totalBytes.add(bytes);
+                fileCount.incrementAndGet();
+            } catch (Exception e) {
+                chunks.failed = true;
+                failCount.incrementAndGet();
+                e.printStackTrace();
+            } finally {
+                buffers.release(block);
+                chunks.end();
+            }
+        }
+    }
+
+    private class DigestThread implements Runnable {
+
+        private final FileChunks chunks;
+        private final ByteBuffer block;
+        private final int[] ends;
+
+        public DigestThread(FileChunks chunks, ByteBuffer block, int[] ends) {
+            this.chunks = chunks;
+            this.block = block;
+            this.ends = ends;
+        }
+
+        //2.计算每个数据块的摘要，第一次出现的数据块归当前文件所有，否则计入与所属文件共有的字节数
+        @Override
+        public void run() {
+            long begin = System.nanoTime();
+            Hasher hasher = hashers.acquire();
+            try {
+                int start = 0;
+                for (int end : ends) {
+                    ByteBuffer chunk = block.duplicate();
+                    chunk.position(start).limit(end);
+                    hasher.update(chunk);
+                    byte[] digest = hasher.digest();
+                    chunks.record(chunkIndex.putIfAbsent(digest, chunks.id), end - start);
+                    start = end;
+                }
+                chunkCount.add(ends.length);
+                hashMetrics.record(start, System.nanoTime() - begin);
+            } finally {
+                hashers.release(hasher);
+                buffers.release(block);
+                chunks.end();
+            }
+        }
+    }
+
+    //一个文件的分块状态，读取和所有数据块的摘要都完成后通知结果
+    private class FileChunks {
+
+        private final int id;
+        private final Path file;
+        //读取线程本身也计为一个在途任务
+        private final AtomicInteger running = new AtomicInteger(1);
+        private volatile boolean failed;
+        //所属文件编号 -> {共有字节数，可释放字节数}
+        private final Map<Integer, long[]> owners = new HashMap<>();
+        //本文件引用过的其他文件的数据块编号，文件处理完后释放
+        private ChunkSet referenced = new ChunkSet();
+
+        public FileChunks(int id, Path file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        public void begin() {
+            running.incrementAndGet();
+        }
+
+        public void end() {
+            if (running.decrementAndGet() == 0 && !failed) emit();
+        }
+
+        //result为ChunkIndex.putIfAbsent的返回值，本文件第一次引用的数据块才计入共有字节数
+        public synchronized void record(long result, int length) {
+            int owner = ChunkIndex.owner(result);
+            if (owner < 0) return;
+            long[] bytes = owners.computeIfAbsent(owner, key -> new long[2]);
+            if (referenced.add(ChunkIndex.chunk(result))) bytes[0] += length;
+            bytes[1] += length;
+            reclaimableBytes.add(length);
+        }
+
+        //3.文件处理完后，与之共有数据块的文件不会再变化，立即通知
+        private void emit() {
+            Map<Integer, long[]> owners;
+            synchronized (this) {
+                owners = new TreeMap<>(this.owners);
+                this.owners.clear();
+                referenced = null;
+            }
+            for (Map.Entry<Integer, long[]> entry : owners.entrySet())
+                try {
+                    listener.onShared(new SharedChunks(paths.get(entry.getKey()), file, entry.getValue()[0],
+                            entry.getValue()[1]));
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+        }
+    }
+
+    //数据块编号的集合，开放寻址，每个编号只占一个int
+    private static class ChunkSet {
+
+        //编号+1，0表示空槽
+        private int[] slots = new int[16];
+        private int size;
+
+        //返回是否是第一次加入
+        public boolean add(int chunk) {
+            int mask = slots.length - 1;
+            for (int slot = hash(chunk) & mask; ; slot = (slot + 1) & mask) {
+                if (slots[slot] == 0) {
+                    slots[slot] = chunk + 1;
+                    if (++size * 4 > slots.length * 3) rehash();
+                    return true;
+                }
+                if (slots[slot] == chunk + 1) return false;
+            }
+        }
+
+        private void rehash() {
+            int[] slots = new int[this.slots.length * 2];
+            int mask = slots.length - 1;
+            for (int value : this.slots) {
+                if (value == 0) continue;
+                int slot = hash(value - 1) & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = value;
+            }
+            this.slots = slots;
+        }
+
+        private static int hash(int chunk) {
+            int hash = chunk * 0x9E3779B9;
+            return hash ^ hash >>> 16;
+        }
+    }
+
+}
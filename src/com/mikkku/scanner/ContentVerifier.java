@@ -0,0 +1,222 @@
+package com.mikkku.scanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 逐字节确认哈希相同的文件：每批最多同时打开maxOpenFiles个文件，每轮从每个文件读取一个数据块，
+ * 按数据块的内容把到目前为止相同的文件继续拆分，每个文件只顺序读取一次，组拆成多少个子组都不会重读。
+ * 组大于一批时，各批拆分出的部分按读取时顺带计算的内容哈希合并：哈希不同的部分内容一定不同，
+ * 哈希相同的部分再逐字节确认各部分的第一个文件，组内文件全部相同时（最常见的情况）每批只多读一个文件。
+ * 打开的文件数和缓冲区占用的内存与组的大小无关。
+ */
+public class ContentVerifier {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_OPEN_FILES = 64;
+
+    private final int blockSize;
+    private final int maxOpenFiles;
+
+    public ContentVerifier() {
+        this(BLOCK_SIZE, MAX_OPEN_FILES);
+    }
+
+    public ContentVerifier(int blockSize) {
+        this(blockSize, MAX_OPEN_FILES);
+    }
+
+    public ContentVerifier(int blockSize, int maxOpenFiles) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("The block size must is positive integer!");
+        if (maxOpenFiles < 2)
+            throw new IllegalArgumentException("The max open files must not be less than 2!");
+        this.blockSize = blockSize;
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    //返回内容完全相同的子组，每个子组至少包含两个文件
+    public List<List<Path>> verify(List<Path> group) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[Math.min(group.size(), maxOpenFiles)];
+        for (int i = 0; i < buffers.length; i++) buffers[i] = ByteBuffer.allocate(blockSize);
+        List<List<Path>> result = new ArrayList<>();
+        for (List<Path> part : classify(group, buffers)) if (part.size() > 1) result.add(part);
+        return result;
+    }
+
+    //按内容把files分为若干部分，包括只有一个文件的部分
+    private List<List<Path>> classify(List<Path> files, ByteBuffer[] buffers) throws IOException {
+        //1.每批内逐块拆分
+        List<Part> parts = new ArrayList<>();
+        for (int from = 0; from < files.size(); from += maxOpenFiles)
+            parts.addAll(partition(files.subList(from, Math.min(from + maxOpenFiles, files.size())), buffers));
+        List<List<Path>> result = new ArrayList<>();
+        if (files.size() <= maxOpenFiles) {
+            for (Part part : parts) result.add(part.files);
+            return result;
+        }
+        //2.不同批次中内容哈希相同的部分，以各部分的第一个文件代表该部分再分一次
+        Map<Long, List<Part>> buckets = new LinkedHashMap<>();
+        for (Part part : parts) buckets.computeIfAbsent(part.hash, hash -> new ArrayList<>()).add(part);
+        for (List<Part> bucket : buckets.values()) {
+            if (bucket.size() == 1) {
+                result.add(bucket.get(0).files);
+                continue;
+            }
+            Map<Path, Part> represented = new HashMap<>();
+            List<Path> representatives = new ArrayList<>(bucket.size());
+            for (Part part : bucket) {
+                represented.put(part.files.get(0), part);
+                representatives.add(part.files.get(0));
+            }
+            //代表文件与原来一样多时（各部分都只有一个文件且哈希全部碰撞）再分也不会减少，改为逐个与基准比较
+            List<List<Path>> classes = representatives.size() < files.size() ? classify(representatives, buffers)
+                    : compareAll(representatives, buffers);
+            for (List<Path> same : classes) {
+                List<Path> merged = new ArrayList<>();
+                for (Path representative : same) merged.addAll(represented.get(representative).files);
+                result.add(merged);
+            }
+        }
+        return result;
+    }
+
+    //同时打开batch中的所有文件，每轮读取一个数据块，与同一部分中其他文件的数据块不同的文件拆为新的部分
+    private List<Part> partition(List<Path> batch, ByteBuffer[] buffers) throws IOException {
+        int count = batch.size();
+        FileChannel[] channels = new FileChannel[count];
+        try {
+            for (int i = 0; i < count; i++) channels[i] = FileChannel.open(batch.get(i), StandardOpenOption.READ);
+            List<Part> finished = new ArrayList<>();
+            List<Part> active = new ArrayList<>();
+            Part all = new Part(0);
+            for (int i = 0; i < count; i++) all.add(batch.get(i), i);
+            active.add(all);
+            while (!active.isEmpty()) {
+                List<Part> next = new ArrayList<>();
+                for (Part part : active) {
+                    for (int index : part.indexes) read(channels[index], buffers[index]);
+                    //每个新部分以其第一个文件的数据块为准
+                    List<Part> split = new ArrayList<>();
+                    for (int i = 0; i < part.indexes.size(); i++) {
+                        int index = part.indexes.get(i);
+                        Part target = null;
+                        for (Part candidate : split)
+                            if (buffers[candidate.indexes.get(0)].equals(buffers[index])) {
+                                target = candidate;
+                                break;
+                            }
+                        if (target == null) split.add(target = new Part(part.hash));
+                        target.add(part.files.get(i), index);
+                    }
+                    for (Part sub : split) {
+                        ByteBuffer block = buffers[sub.indexes.get(0)];
+                        if (!block.hasRemaining()) {
+                            //同一部分的文件内容相同，同时读到末尾
+                            for (int index : sub.indexes) {
+                                channels[index].close();
+                                channels[index] = null;
+                            }
+                            finished.add(sub);
+                        } else {
+                            sub.update(block);
+                            next.add(sub);
+                        }
+                    }
+                }
+                active = next;
+            }
+            return finished;
+        } finally {
+            for (FileChannel channel : channels) if (channel != null) channel.close();
+        }
+    }
+
+    //每轮以剩余文件中的第一个为基准，分批与其比较，用于无法按内容哈希区分的文件
+    private List<List<Path>> compareAll(List<Path> files, ByteBuffer[] buffers) throws IOException {
+        List<List<Path>> result = new ArrayList<>();
+        List<Path> remaining = files;
+        while (!remaining.isEmpty()) {
+            Path reference = remaining.get(0);
+            List<Path> same = new ArrayList<>(), different = new ArrayList<>();
+            same.add(reference);
+            for (int from = 1; from < remaining.size(); from += maxOpenFiles - 1) {
+                List<Path> batch = remaining.subList(from, Math.min(from + maxOpenFiles - 1, remaining.size()));
+                boolean[] equal = compare(reference, batch, buffers);
+                for (int i = 0; i < batch.size(); i++) (equal[i] ? same : different).add(batch.get(i));
+            }
+            result.add(same);
+            remaining = different;
+        }
+        return result;
+    }
+
+    //batch中的每个文件是否与reference内容相同，buffers[0]用于基准文件
+    private boolean[] compare(Path reference, List<Path> batch, ByteBuffer[] buffers) throws IOException {
+        int count = batch.size();
+        boolean[] equal = new boolean[count];
+        FileChannel[] channels = new FileChannel[count];
+        try (FileChannel referenceChannel = FileChannel.open(reference, StandardOpenOption.READ)) {
+            for (int i = 0; i < count; i++) {
+                channels[i] = FileChannel.open(batch.get(i), StandardOpenOption.READ);
+                equal[i] = true;
+            }
+            int alive = count;
+            boolean eof = false;
+            while (!eof && alive > 0) {
+                eof = !read(referenceChannel, buffers[0]);
+                for (int i = 0; i < count; i++) {
+                    if (!equal[i]) continue;
+                    read(channels[i], buffers[i + 1]);
+                    if (!buffers[i + 1].equals(buffers[0])) {
+                        equal[i] = false;
+                        alive--;
+                        channels[i].close();
+                        channels[i] = null;
+                    }
+                }
+            }
+            return equal;
+        } finally {
+            for (FileChannel channel : channels) if (channel != null) channel.close();
+        }
+    }
+
+    //读满缓冲区或到达文件末尾为止，返回是否读到了数据
+    private static boolean read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    //到目前为止内容相同的文件，及其在批内的序号和已读内容的哈希
+    private static class Part {
+
+        private final List<Path> files = new ArrayList<>();
+        private final List<Integer> indexes = new ArrayList<>();
+        private long hash;
+
+        public Part(long hash) {
+            this.hash = hash;
+        }
+
+        public void add(Path file, int index) {
+            files.add(file);
+            indexes.add(index);
+        }
+
+        public void update(ByteBuffer block) {
+            hash = (hash ^ block.hashCode()) * 0x9E3779B97F4A7C15L;
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.mikkku.scanner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 识别文件所在的设备及其类型。Unix上从fileKey（"(dev=设备号,ino=inode编号)"）解析设备号和inode编号，
+ * Linux上再从/sys/dev/block读取是否为机械硬盘；没有fileKey的平台（Windows）按根目录区分设备，类型视为固态硬盘。
+ * 每个设备只在第一次出现时检测一次。
+ */
+class Devices {
+
+    enum Kind {ROTATIONAL, SOLID_STATE, NETWORK}
+
+    private static final Set<String> NETWORK_TYPES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb", "smb2", "smb3", "smbfs", "9p", "afs", "ceph", "glusterfs", "fuse.sshfs",
+            "fuse.rclone", "davfs"));
+
+    static class Device {
+
+        private final String name;
+        private final Kind kind;
+
+        Device(String name, Kind kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final ConcurrentHashMap<Object, Device> devices = new ConcurrentHashMap<>();
+
+    Device resolve(Path file, BasicFileAttributes attributes) {
+        String fileKey = fileKey(attributes);
+        int index = fileKey.indexOf("dev=");
+        Object key = null;
+        if (index >= 0) {
+            int end = fileKey.indexOf(',', index);
+            try {
+                key = Long.parseLong(fileKey.substring(index + 4, end < 0 ? fileKey.length() - 1 : end), 16);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (key == null) key = file.toAbsolutePath().getRoot();
+        return devices.computeIfAbsent(key, device -> detect(device, file));
+    }
+
+    //同一设备上inode编号相近的文件在磁盘上的位置通常也相近，没有inode编号时返回0
+    static long inode(BasicFileAttributes attributes) {
+        String fileKey = fileKey(attributes);
+        int index = fileKey.indexOf("ino=");
+        if (index < 0) return 0;
+        int end = index + 4;
+        while (end < fileKey.length() && Character.isDigit(fileKey.charAt(end))) end++;
+        try {
+            return Long.parseLong(fileKey.substring(index + 4, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey == null ? "" : fileKey.toString();
+    }
+
+    private static Device detect(Object key, Path file) {
+        String name = key.toString(), type = "";
+        try {
+            FileStore store = Files.getFileStore(file);
+            type = store.type().toLowerCase(Locale.ROOT);
+            name = store.name();
+        } catch (IOException ignored) {
+        }
+        if (NETWORK_TYPES.contains(type)) return new Device(name, Kind.NETWORK);
+        if (!(key instanceof Long)) return new Device(name, Kind.SOLID_STATE);
+        //Linux的dev_t：主设备号为第8~19位和第32位以上，次设备号为低8位和第20~31位
+        long dev = (Long) key;
+        long major = ((dev >>> 8) & 0xFFF) | ((dev >>> 32) & ~0xFFFL);
+        long minor = (dev & 0xFF) | ((dev >>> 12) & ~0xFFL);
+        name += "(" + major + ":" + minor + ")";
+        return new Device(name, rotational(major + ":" + minor) ? Kind.ROTATIONAL : Kind.SOLID_STATE);
+    }
+
+    //分区没有自己的queue目录，使用所在磁盘的
+    private static boolean rotational(String device) {
+        try {
+            Path block = Paths.get("/sys/dev/block", device);
+            if (Files.notExists(block)) return false;
+            Path queue = block.resolve("queue/rotational");
+            if (Files.notExists(queue)) queue = block.toRealPath().getParent().resolve("queue/rotational");
+            return Files.exists(queue) && new String(Files.readAllBytes(queue), StandardCharsets.US_ASCII).trim().equals("1");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+}
@@ -1,171 +1,776 @@
 package com.mikkku.scanner;
 
-import com.sun.org.apache.xerces.internal.impl.dv.util.HexBin;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import com.mikkku.concurrent.ObjectPool;
+import com.mikkku.concurrent.StageExecutor;
+import com.mikkku.hash.HashEngine;
+import com.mikkku.hash.Hasher;
+import com.mikkku.index.CandidateIndex;
+import com.mikkku.index.DigestIndex;
+import com.mikkku.index.PathArena;
+import com.mikkku.metrics.ScanMetrics;
+import com.mikkku.metrics.StageMetrics;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.JMException;
 
-public class DuplicateFileScanner {
+public class DuplicateFileScanner implements Closeable {
 
-    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
     private static final int INIT_CAPACITY = 1 << 4;
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int SMALL_BLOCK_SIZE = 64 * 1024;
+    //按设备调度时每个设备的队列容量，也是按inode编号排序的窗口大小
+    static final int DEVICE_QUEUE_CAPACITY = 1024;
 
-    private final String algorithm;
+    private final HashEngine engine;
+    private final HashEngine prefilterEngine;
+    private final int prefilterSize;
+    private final int sampleCount;
     private final File[] files;
-    private final CountDownLatch latch;
-    private final ThreadPoolExecutor executor;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final long minSize;
+    private final long maxSize;
+    private final int shard;
+    private final int shardCount;
+    private final StageExecutor prefilterStage;
+    private final StageExecutor readStage;
+    private final StageExecutor digestStage;
+    private final StageExecutor verifyStage;
+    private final LargeFileHasher largeFileHasher;
+    private final HashCache hashCache;
+    private final ContentVerifier verifier;
+    private final Devices devices;
+    private final Checkpoint checkpoint;
+    private final ObjectPool<Hasher> hashers;
+    private final ObjectPool<Hasher> prefilterHashers;
+    private final ObjectPool<ByteBuffer> buffers;
+    private final ObjectPool<ByteBuffer> smallBuffers;
+    private final ObjectPool<ByteBuffer> prefilterBuffers;
+    private final ParallelFileScanner fileScanner;
+    private final AtomicLong pending = new AtomicLong(1);
+    private final CountDownLatch done = new CountDownLatch(1);
     private final AtomicInteger repeatCount = new AtomicInteger();
     private final AtomicInteger failCount = new AtomicInteger();
-    private final ConcurrentHashMap<String, String> hashMap = new ConcurrentHashMap<>(INIT_CAPACITY << 4);
-    private final ConcurrentHashMap<String, String> sizeMap = new ConcurrentHashMap<>(INIT_CAPACITY);
-    private final ConcurrentHashMap<String, String> antiHashMap = new ConcurrentHashMap<>(INIT_CAPACITY);
-    private final ConcurrentHashMap<String, String> antiSizeMap = new ConcurrentHashMap<>(INIT_CAPACITY);
+    private final AtomicInteger splitCount = new AtomicInteger();
+    private final AtomicLong reclaimableBytes = new AtomicLong();
+    //按大小、按（大小，抽样指纹）分组，组内只有一个文件时只暂存它的路径编号
+    private final CandidateIndex sizeIndex = new CandidateIndex();
+    private final CandidateIndex fingerprintIndex = new CandidateIndex();
+    //只有出现两个以上文件的大小才有SizeGroup，确认后立即移除
+    private final ConcurrentHashMap<Long, SizeGroup> sizeGroups = new ConcurrentHashMap<>(INIT_CAPACITY);
+    //路径、完整摘要都只保存为基本类型数组，重复组确认时才转换为对象
+    private final PathArena paths = new PathArena();
+    private final DigestIndex digestIndex;
+    private volatile boolean walked;
+    //使扫描无法继续的错误（如内存不足）或listener抛出的异常，只保留第一个，扫描线程被唤醒后抛出
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private ScanListener listener;
+    private final ScanMetrics metrics = new ScanMetrics();
+    private final StageMetrics walkMetrics;
+    private final StageMetrics prefilterMetrics;
+    private final StageMetrics readMetrics;
+    private final StageMetrics hashMetrics;
+    private final StageMetrics verifyMetrics;
+    private final long metricsInterval;
 
     public DuplicateFileScanner(String algorithm, File... files) throws IOException {
-        this.algorithm = algorithm;
+        this(new ScanOptions(algorithm), files);
+    }
+
+    public DuplicateFileScanner(ScanOptions options, File... files) throws IOException {
+        //抽样指纹只用于筛选，使用速度更快的非加密哈希，完整哈希使用指定的算法确认
+        engine = HashEngine.of(options.getAlgorithm());
+        digestIndex = new DigestIndex(engine.newHasher().digest().length);
+        prefilterEngine = HashEngine.of(options.getPrefilterAlgorithm());
+        prefilterSize = options.getPrefilterSize();
+        sampleCount = options.getSampleCount();
         this.files = files;
-        final int[] counts = {0};
-        FileScanner fileScanner = new FileScanner() {
+        includes = matchers(options.getIncludes());
+        excludes = matchers(options.getExcludes());
+        minSize = options.getMinSize();
+        maxSize = options.getMaxSize();
+        shard = options.getShard();
+        shardCount = options.getShardCount();
+        File cacheFile = options.getCacheFile();
+        hashCache = cacheFile == null ? null : new HashCache(cacheFile, engine.getName(), files);
+        //检查点只记录本分片的文件，分片不同时不能恢复
+        String checkpointName = shardCount > 1 ? engine.getName() + "#" + shard + "/" + shardCount : engine.getName();
+        checkpoint = options.getCheckpointFile() == null ? null : Checkpoint.open(checkpointName, files, options);
+        verifier = options.isVerify() ? new ContentVerifier() : null;
+        //遍历 -> 抽样 -> 读取 -> 摘要，只向后一阶段提交，队列满时前一阶段阻塞
+        devices = options.isDeviceScheduling() && options.getMaxOpenFiles() == 0 ? new Devices() : null;
+        if (options.getMaxOpenFiles() > 0) {
+            //读取线程大部分时间阻塞在网络IO上，每个文件一个虚拟线程，摘要仍在平台线程上计算
+            prefilterStage = StageExecutor.perTask("prefilter", options.getMaxOpenFiles());
+            readStage = StageExecutor.perTask("read", options.getMaxOpenFiles());
+        } else if (devices != null) {
+            //机械硬盘并发读取会反复寻道，每个设备单独限制并发数，互不拖慢
+            prefilterStage = StageExecutor.perDevice("prefilter", device -> deviceThreads(options, device), DEVICE_QUEUE_CAPACITY);
+            readStage = StageExecutor.perDevice("read", device -> deviceThreads(options, device), DEVICE_QUEUE_CAPACITY);
+        } else {
+            prefilterStage = StageExecutor.pooled("prefilter", options.getIoThreads(), options.getQueueCapacity());
+            readStage = StageExecutor.pooled("read", options.getIoThreads(), options.getQueueCapacity());
+        }
+        digestStage = StageExecutor.pooled("digest", options.getCpuThreads(), options.getQueueCapacity());
+        //逐字节确认可能由任意阶段的线程触发，作为最后一个阶段才不会反向提交
+        verifyStage = verifier == null ? null
+                : StageExecutor.pooled("verify", options.getIoThreads(), options.getQueueCapacity());
+        largeFileHasher = new LargeFileHasher(engine, options.getCpuThreads());
+        //读取阶段的延迟为每个文件从打开到读完的时间，摘要阶段的延迟为每个文件实际计算摘要的时间
+        walkMetrics = metrics.stage("walk", null);
+        prefilterMetrics = metrics.stage("prefilter", prefilterStage);
+        readMetrics = metrics.stage("read", readStage);
+        hashMetrics = metrics.stage("digest", digestStage);
+        verifyMetrics = verifyStage == null ? null : metrics.stage("verify", verifyStage);
+        metricsInterval = options.getMetricsInterval();
+        if (options.isJmx())
+            try {
+                metrics.registerMBeans();
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        //每个读取任务最多同时持有两个缓冲区，其余的在摘要阶段的队列中或正在计算，虚拟线程模式下同时读取maxOpenFiles个文件。
+        //缓冲区池有界，全部借出时读取任务阻塞，直接内存的占用不超过容量乘以缓冲区大小
+        int readers = options.getMaxOpenFiles() > 0 ? options.getMaxOpenFiles() : options.getIoThreads();
+        int poolCapacity = readers * 2 + options.getQueueCapacity() + options.getCpuThreads();
+        hashers = new ObjectPool<>(poolCapacity, engine::newHasher);
+        prefilterHashers = new ObjectPool<>(poolCapacity, prefilterEngine::newHasher);
+        buffers = ObjectPool.bounded(poolCapacity, () -> ByteBuffer.allocateDirect(BLOCK_SIZE));
+        smallBuffers = ObjectPool.bounded(poolCapacity, () -> ByteBuffer.allocateDirect(SMALL_BLOCK_SIZE));
+        prefilterBuffers = ObjectPool.bounded(poolCapacity, () -> ByteBuffer.allocateDirect(prefilterSize));
+        fileScanner = new ParallelFileScanner(options.getWalkParallelism()) {
+
             @Override
-            protected void operate(File file) {
-                counts[0]++;
+            protected void operate(Path file, BasicFileAttributes attributes) {
+                if (!accept(file, attributes)) return;
+                if (checkpoint != null) checkpoint.walked(file, attributes);
+                arrive(file, attributes);
+            }
+
+            @Override
+            protected boolean skip(Path dir) {
+                return checkpoint != null && checkpoint.isCompleted(dir);
+            }
+
+            @Override
+            protected void completed(Path dir) {
+                if (checkpoint != null) checkpoint.completed(dir);
             }
         };
-        for (File file : files) fileScanner.scanFiles(file);
-        latch = new CountDownLatch(counts[0]);
-        executor = new ThreadPoolExecutor(PROCESSORS, PROCESSORS, 0, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(PROCESSORS), Thread::new, new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
-    public Object[] scan() {
-        for (File file : files) executor.execute(new ScanThread(file));
+    //扫描结束后返回所有重复组
+    public ScanResult scan() {
+        List<DuplicateGroup> groups = Collections.synchronizedList(new ArrayList<>());
+        ScanResult result = scan(groups::add);
+        return result == null ? null : new ScanResult(result.getUniqueCount(), result.getRepeatCount(),
+                result.getFailCount(), result.getReclaimableBytes(), new ArrayList<>(groups));
+    }
+
+    /**
+     * 重复组确认后立即通知listener，不在内存中保留，返回的结果中不包含重复组。
+     * 扫描线程被中断时抛出CancellationException，发生内存不足等错误或listener抛出异常时停止扫描并抛出第一个错误或异常，
+     * 这些情况下检查点都会保留，之后可以从检查点恢复。
+     */
+    public ScanResult scan(ScanListener listener) {
+        this.listener = listener;
+        if (metricsInterval > 0) metrics.startLogging(metricsInterval, TimeUnit.SECONDS, System.err);
+        //已遍历完的子目录不再遍历，其中的文件按检查点记录的属性加入扫描
+        if (checkpoint != null)
+            checkpoint.forEachCompletedFile((file, attributes) -> {
+                if (accept(file, attributes)) arrive(file, attributes);
+            });
+        //遍历、抽样和哈希以流水线方式同时进行，所有在途任务完成即扫描结束
+        for (File file : files)
+            try {
+                fileScanner.scanFiles(file.toPath());
+            } catch (FileNotFoundException e) {
+                System.err.println("路径不存在：" + file);
+            } catch (IOException e) {
+                System.err.println("遍历失败：" + file);
+                e.printStackTrace();
+            }
+        fileScanner.shutdown();
+        //遍历结束后不会再有新文件加入，已没有在途任务的大小分组可以立即确认
+        walked = true;
+        for (SizeGroup group : sizeGroups.values()) if (group.isIdle()) confirm(group);
+        complete();
         try {
-            latch.await();
+            done.await();
         } catch (InterruptedException e) {
-            System.err.println("任务被终止！");
-            System.exit(2);
+            abort();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The scan is interrupted");
+        }
+        Throwable cause = failure.get();
+        if (cause != null) {
+            abort();
+            if (cause instanceof Error) throw (Error) cause;
+            throw (RuntimeException) cause;
         }
-        executor.shutdown();
+        //始终未出现同组文件的大小或指纹分组中的文件不可能重复
+        int filteredCount = sizeIndex.uniqueCount() + fingerprintIndex.uniqueCount();
+        sizeGroups.clear();
+        prefilterStage.shutdown();
+        readStage.shutdown();
+        digestStage.shutdown();
+        if (verifyStage != null) verifyStage.shutdown();
+        largeFileHasher.shutdown();
+        metrics.stopLogging();
         try {
-            if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS)) {
-                int uniqueCount = hashMap.size() + sizeMap.size();
-                int repeatCount = this.repeatCount.get();
-                int failCount = this.failCount.get();
-                int fileCount = uniqueCount + repeatCount + failCount;
-                return new Object[]{uniqueCount, repeatCount, failCount, fileCount, antiHashMap, antiSizeMap};
+            if (prefilterStage.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS)
+                    && readStage.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS)
+                    && digestStage.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS)
+                    && (verifyStage == null || verifyStage.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS))) {
+                //逐字节确认后从重复组中拆出的文件计为未重复
+                int uniqueCount = digestIndex.size() + filteredCount + splitCount.get();
+                int repeatCount = this.repeatCount.get() - splitCount.get();
+                //扫描已完成，不再需要恢复
+                if (checkpoint != null)
+                    try {
+                        checkpoint.delete();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                return new ScanResult(uniqueCount, repeatCount, failCount.get(), reclaimableBytes.get(),
+                        Collections.emptyList());
             }
         } catch (InterruptedException e) {
-            System.err.println("扫描被中断！");
-            System.exit(3);
+            abort();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The scan is interrupted");
         }
         return null;
     }
 
-    private class ScanThread implements Runnable {
+    //扫描无法继续：各阶段不再接受新任务，检查点中已有的记录刷新到磁盘
+    private void abort() {
+        fileScanner.shutdown();
+        for (StageExecutor stage : getStages()) stage.shutdown();
+        largeFileHasher.shutdown();
+        metrics.stopLogging();
+        if (checkpoint != null)
+            try {
+                checkpoint.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+    }
+
+    public long getDirectoryCount() {
+        return fileScanner.getDirectoryCount();
+    }
+
+    public double getDirectoryRate() {
+        return fileScanner.getDirectoryRate();
+    }
+
+    //各阶段的队列深度和活跃线程数，用于调整线程数和队列容量
+    public List<StageExecutor> getStages() {
+        return verifyStage == null ? Arrays.asList(prefilterStage, readStage, digestStage)
+                : Arrays.asList(prefilterStage, readStage, digestStage, verifyStage);
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        metrics.unregisterMBeans();
+        if (checkpoint != null) checkpoint.close();
+        if (hashCache != null) hashCache.close();
+    }
+
+    //不含路径分隔符的glob只匹配文件名
+    static List<PathMatcher> matchers(List<String> globs) {
+        List<PathMatcher> matchers = new ArrayList<>(globs.size());
+        for (String glob : globs) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            if (glob.indexOf('/') < 0 && glob.indexOf('\\') < 0)
+                matchers.add(path -> matcher.matches(path.getFileName()));
+            else
+                matchers.add(matcher);
+        }
+        return matchers;
+    }
+
+    static boolean matches(List<PathMatcher> matchers, Path file) {
+        for (PathMatcher matcher : matchers) if (matcher.matches(file)) return true;
+        return false;
+    }
+
+    private boolean accept(Path file, BasicFileAttributes attributes) {
+        if (attributes.size() < minSize || attributes.size() > maxSize) return false;
+        if (shardCount > 1 && shard(attributes.size(), shardCount) != shard) return false;
+        if (matches(excludes, file)) return false;
+        return includes.isEmpty() || matches(includes, file);
+    }
+
+    //大小乘以黄金分割常数后取高32位，大小集中在少数取值附近时也能均匀分布到各分片
+    public static int shard(long size, int shardCount) {
+        return (int) (((size * 0x9E3779B97F4A7C15L) >>> 32) % shardCount);
+    }
+
+    static int deviceThreads(ScanOptions options, Object device) {
+        if (!(device instanceof Devices.Device)) return options.getIoThreads();
+        switch (((Devices.Device) device).getKind()) {
+            case ROTATIONAL:
+                return options.getRotationalThreads();
+            case NETWORK:
+                return options.getNetworkThreads();
+            default:
+                return options.getIoThreads();
+        }
+    }
+
+    private long prefilterLength() {
+        return (long) prefilterSize * (sampleCount + 2);
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey == null ? "" : fileKey.toString();
+    }
+
+    //group不为null时同时记录该大小分组的在途任务，最后一个任务结束时确认该分组
+    private void execute(StageExecutor stage, SizeGroup group, Runnable task) {
+        execute(stage, group, task, null, 0);
+    }
+
+    private void execute(StageExecutor stage, SizeGroup group, Runnable task, Object device, long order) {
+        pending.incrementAndGet();
+        if (group != null) group.begin();
+        stage.execute(() -> {
+            try {
+                try {
+                    task.run();
+                } finally {
+                    if (group != null && group.end() && walked) confirm(group);
+                }
+            } catch (Error error) {
+                //任何阶段的任务出现错误都交给扫描线程处理，不能只丢弃当前文件
+                fail(error);
+            } finally {
+                complete();
+            }
+        }, device, order);
+    }
+
+    //读取文件的任务，按设备调度时交给文件所在设备的队列，按inode编号排序
+    private void read(StageExecutor stage, Path file, BasicFileAttributes attributes, Runnable task) {
+        execute(stage, sizeGroups.get(attributes.size()), task,
+                devices == null ? null : devices.resolve(file, attributes), Devices.inode(attributes));
+    }
+
+    //唤醒扫描线程，由它停止扫描并保留检查点
+    private void fail(Throwable cause) {
+        failure.compareAndSet(null, cause);
+        done.countDown();
+    }
+
+    private void complete() {
+        if (pending.decrementAndGet() == 0) done.countDown();
+    }
+
+    //1.按文件大小分组，大小唯一的文件不可能重复
+    private void arrive(Path file, BasicFileAttributes attributes) {
+        long size = attributes.size();
+        walkMetrics.record(size);
+        metrics.addSkippedBytes(size);
+        int id = paths.intern(file);
+        //组内第一个文件只暂存路径编号，出现第二个文件时才与其一并进入下一阶段
+        int parked = sizeIndex.arrive(size, 0, id);
+        if (parked == CandidateIndex.PARKED) return;
+        sizeGroups.computeIfAbsent(size, SizeGroup::new);
+        if (parked >= 0) release(parked, size, this::prefilter);
+        prefilter(id, file, attributes);
+    }
+
+    //暂存的文件进入下一阶段前重新读取属性，期间大小已变化或已被删除的文件计为失败
+    private void release(int id, long size, Candidate next) {
+        Path file = paths.get(id);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.size() != size)
+                throw new IOException("The file \"" + file + "\" is modified while scanning");
+            next.accept(id, file, attributes);
+        } catch (IOException e) {
+            failCount.addAndGet(1);
+            e.printStackTrace();
+        }
+    }
+
+    //2.大小相同的文件抽样计算指纹，抽样范围已覆盖整个文件时直接计算完整哈希
+    private void prefilter(int id, Path file, BasicFileAttributes attributes) {
+        //跳过的字节数：遍历时计入整个文件，进入抽样后只计入未抽样的部分，进入完整哈希后不再计入
+        metrics.addSkippedBytes(-attributes.size());
+        if (attributes.size() > prefilterLength()) {
+            metrics.addSkippedBytes(attributes.size() - prefilterLength());
+            read(prefilterStage, file, attributes, new PrefilterThread(id, file, attributes));
+        } else
+            read(readStage, file, attributes, new IOThread(id, file, attributes));
+    }
+
+    //3.指纹相同的文件才计算完整哈希
+    private void digest(int id, Path file, BasicFileAttributes attributes) {
+        metrics.addSkippedBytes(prefilterLength() - attributes.size());
+        read(readStage, file, attributes, new IOThread(id, file, attributes));
+    }
+
+    //抽样指纹按8字节异或折叠为一个long，只用于筛选，折叠造成的碰撞只会多计算几次完整哈希
+    private static long fold(byte[] digest) {
+        long fingerprint = 0;
+        for (int i = 0; i < digest.length; i++) fingerprint ^= (digest[i] & 0xFFL) << ((i & 7) << 3);
+        return fingerprint;
+    }
 
-        private final File path;
+    //进入下一阶段的文件
+    private interface Candidate {
+        void accept(int id, Path file, BasicFileAttributes attributes);
+    }
+
+    private class PrefilterThread implements Runnable {
+
+        private final int id;
+        private final Path file;
+        private final BasicFileAttributes attributes;
 
-        public ScanThread(File path) {
-            this.path = path;
+        public PrefilterThread(int id, Path file, BasicFileAttributes attributes) {
+            this.id = id;
+            this.file = file;
+            this.attributes = attributes;
         }
 
         @Override
         public void run() {
+            long size = attributes.size(), begin = System.nanoTime();
+            Hasher hasher = prefilterHashers.acquire();
+            ByteBuffer buffer = prefilterBuffers.acquire();
             try {
-                new FileScanner() {
-
-                    @Override
-                    protected void operate(File file) {
-                        //1.预处理：超过2GB的文件改为判断文件大小
-                        long size = file.length();
-                        if (size > Integer.MAX_VALUE) {
-                            String oldFile = sizeMap.put(size + "", file.toString());
-                            if (oldFile != null) {
-                                repeatCount.addAndGet(1);
-                                antiSizeMap.put(size + "\\" + oldFile, "");
-                                antiSizeMap.put(size + "\\" + file, "");
-                            }
-                            latch.countDown();
-                        } else
-                            //2.提交给IO线程处理
-                            executor.execute(new IOThread(file));
-                    }
-                }.scanFiles(path);
-            } catch (FileNotFoundException e) {
-                System.err.println("路径不存在：" + path);
+                //读取文件头、文件尾及中间均匀分布的若干数据块
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    update(hasher, channel, buffer, 0);
+                    for (int i = 1; i <= sampleCount; i++) update(hasher, channel, buffer, size / (sampleCount + 1) * i);
+                    update(hasher, channel, buffer, size - prefilterSize);
+                }
+                long fingerprint = fold(hasher.digest());
+                prefilterMetrics.record(prefilterLength(), System.nanoTime() - begin);
+                int parked = fingerprintIndex.arrive(size, fingerprint, id);
+                if (parked != CandidateIndex.PARKED) {
+                    if (parked >= 0) release(parked, size, DuplicateFileScanner.this::digest);
+                    digest(id, file, attributes);
+                }
+            } catch (Exception e) {
+                hasher.reset();
+                failCount.addAndGet(1);
+                e.printStackTrace();
+            } catch (Error error) {
+                hasher.reset();
+                fail(error);
+            } finally {
+                prefilterHashers.release(hasher);
+                prefilterBuffers.release(buffer);
             }
         }
     }
 
     private class IOThread implements Runnable {
 
-        private final File file;
+        private final int id;
+        private final Path file;
+        private final BasicFileAttributes attributes;
 
-        public IOThread(File file) {
+        public IOThread(int id, Path file, BasicFileAttributes attributes) {
+            this.id = id;
             this.file = file;
+            this.attributes = attributes;
         }
 
         @Override
         public void run() {
-            File file = this.file;
-            MessageDigest hashDigest = null;
-            try {
-                hashDigest = MessageDigest.getInstance(algorithm);
-            } catch (NoSuchAlgorithmException e) {
-                System.err.println("算法不存在！");
-                System.exit(4);
-            }
-            //1.读取文件并生成字节数组
+            Path file = this.file;
+            long size = attributes.size();
             try {
                 try {
-                    byte[] cache = new byte[8 * 1024];
-                    try (FileInputStream fileInputStream = new FileInputStream(file)) {
-                        int len;
-                        while ((len = fileInputStream.read(cache)) != -1)
-                            hashDigest.update(cache, 0, len);
+                    if (checkpoint != null) {
+                        //上次扫描中断前已算出的摘要
+                        byte[] hash = checkpoint.getDigest(file, attributes);
+                        if (hash != null) {
+                            metrics.addCachedBytes(size);
+                            record(id, attributes, hash);
+                            return;
+                        }
+                    }
+                    if (hashCache != null) {
+                        //大小、修改时间和文件标识都未变化时直接使用缓存的摘要
+                        byte[] hash = hashCache.get(file.toString(), size, attributes.lastModifiedTime().toMillis(), fileKey(attributes));
+                        if (hash != null) {
+                            metrics.addCachedBytes(size);
+                            record(id, attributes, hash);
+                            return;
+                        }
+                    }
+                    //超过2GB的文件分块并行计算树哈希
+                    if (size > Integer.MAX_VALUE) {
+                        long begin = System.nanoTime();
+                        byte[] hash = largeFileHasher.hash(file, size);
+                        readMetrics.record(size, System.nanoTime() - begin);
+                        finish(id, file, attributes, hash);
+                        return;
                     }
+                    hash(file, attributes);
                 } catch (Error error) {
-                    System.err.println("内存空间不足！");
-                    System.exit(5);
+                    fail(error);
                 }
             } catch (Exception e) {
                 failCount.addAndGet(1);
                 e.printStackTrace();
-                return;
             }
-            //2.提交给编码线程处理
-            executor.execute(new DigestThread(hashDigest, file));
+        }
+
+        //1.读取文件，当前数据块交给编码线程计算的同时读取下一个数据块，缓冲区和摘要对象都从池中复用
+        private void hash(Path file, BasicFileAttributes attributes) throws IOException, InterruptedException {
+            ObjectPool<ByteBuffer> pool = attributes.size() < SMALL_BLOCK_SIZE ? smallBuffers : buffers;
+            Hasher hasher = hashers.acquire();
+            ByteBuffer block = pool.acquire(), spare = null;
+            boolean submitted = false;
+            //摘要线程依次处理同一文件的数据块，latch保证累加结果对下一个数据块可见
+            long begin = System.nanoTime();
+            long[] hashNanos = new long[1];
+            try {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    read(channel, block);
+                    while (!block.hasRemaining()) {
+                        //池中没有空闲的缓冲区时不预读，等当前数据块计算完后重用同一个缓冲区，不会因互相等待缓冲区而死锁
+                        if (spare == null) spare = pool.tryAcquire();
+                        ByteBuffer current = block;
+                        current.flip();
+                        CountDownLatch hashed = new CountDownLatch(1);
+                        digestStage.execute(() -> {
+                            long hashBegin = System.nanoTime();
+                            try {
+                                hasher.update(current);
+                            } catch (Error error) {
+                                fail(error);
+                            } finally {
+                                hashNanos[0] += System.nanoTime() - hashBegin;
+                                hashed.countDown();
+                            }
+                        });
+                        if (spare == null) {
+                            hashed.await();
+                            read(channel, block);
+                            continue;
+                        }
+                        read(channel, spare);
+                        hashed.await();
+                        block = spare;
+                        spare = current;
+                    }
+                }
+                block.flip();
+                readMetrics.record(attributes.size(), System.nanoTime() - begin);
+                //2.最后一个数据块提交给编码线程处理
+                execute(digestStage, sizeGroups.get(attributes.size()),
+                        new DigestThread(id, file, attributes, hasher, pool, block, spare, hashNanos[0]));
+                submitted = true;
+            } finally {
+                if (!submitted) {
+                    hasher.reset();
+                    hashers.release(hasher);
+                    pool.release(block);
+                    if (spare != null) pool.release(spare);
+                }
+            }
         }
     }
 
     private class DigestThread implements Runnable {
 
-        private final MessageDigest digest;
-        private final File file;
+        private final int id;
+        private final Path file;
+        private final BasicFileAttributes attributes;
+        private final Hasher hasher;
+        private final ObjectPool<ByteBuffer> buffers;
+        private final ByteBuffer block;
+        private final ByteBuffer spare;
+        private final long hashNanos;
 
-        public DigestThread(MessageDigest digest, File file) {
-            this.digest = digest;
+        public DigestThread(int id, Path file, BasicFileAttributes attributes, Hasher hasher,
+                            ObjectPool<ByteBuffer> buffers, ByteBuffer block, ByteBuffer spare, long hashNanos) {
+            this.id = id;
             this.file = file;
+            this.attributes = attributes;
+            this.hasher = hasher;
+            this.buffers = buffers;
+            this.block = block;
+            this.spare = spare;
+            this.hashNanos = hashNanos;
         }
 
         @Override
         public void run() {
+            byte[] hash;
             try {
-                String hash = HexBin.encode(digest.digest()), oldFile = hashMap.put(hash, file.toString());
-                if (oldFile != null) {
-                    repeatCount.addAndGet(1);
-                    antiHashMap.put(hash + "\\" + oldFile, "");
-                    antiHashMap.put(hash + "\\" + file, "");
-                }
+                long begin = System.nanoTime();
+                hasher.update(block);
+                hash = hasher.digest();
+                hashMetrics.record(attributes.size(), hashNanos + System.nanoTime() - begin);
             } finally {
-                latch.countDown();
+                hashers.release(hasher);
+                buffers.release(block);
+                if (spare != null) buffers.release(spare);
+            }
+            finish(id, file, attributes, hash);
+        }
+    }
+
+    //从当前位置读满缓冲区或到达文件末尾为止
+    private static void read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+    }
+
+    //从指定位置读满缓冲区并计算摘要，文件在此期间被截短时抛出异常
+    private static void update(Hasher hasher, FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int len = channel.read(buffer, position);
+            if (len < 0)
+                throw new EOFException("The file is truncated while reading");
+            position += len;
+        }
+        buffer.flip();
+        hasher.update(buffer);
+    }
+
+    private void finish(int id, Path file, BasicFileAttributes attributes, byte[] hash) {
+        if (checkpoint != null) checkpoint.digested(file, hash);
+        if (hashCache != null)
+            try {
+                hashCache.put(file.toString(), attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey(attributes), hash);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+        record(id, attributes, hash);
+    }
+
+    private void record(int id, BasicFileAttributes attributes, byte[] digest) {
+        int group = digestIndex.add(attributes.size(), digest, id, attributes.lastModifiedTime().toMillis());
+        if (group >= 0) {
+            repeatCount.addAndGet(1);
+            sizeGroups.get(attributes.size()).addDigestGroup(group);
+        }
+    }
+
+    //4.某一大小的文件全部处理完后，该大小的重复组不会再变化，立即通知
+    private void confirm(SizeGroup group) {
+        if (!group.confirm()) return;
+        sizeGroups.remove(group.size);
+        for (int number : group.getDigestGroups()) {
+            int[] ids = digestIndex.getGroup(number);
+            List<Path> files = new ArrayList<>(ids.length);
+            for (int id : ids) files.add(paths.get(id));
+            DuplicateGroup duplicates = new DuplicateGroup(digestIndex.getDigest(number), group.size, files,
+                    digestIndex.getStamps(number));
+            if (verifier == null)
+                emit(duplicates);
+            else
+                execute(verifyStage, null, () -> verify(duplicates));
+        }
+    }
+
+    //5.摘要相同的文件逐字节确认，内容不同的文件拆分为多个组
+    private void verify(DuplicateGroup group) {
+        try {
+            long begin = System.nanoTime();
+            List<List<Path>> parts = verifier.verify(group.getFiles());
+            verifyMetrics.record(group.getSize() * group.getFiles().size(), System.nanoTime() - begin);
+            //拆分后每个子组保留一个未重复文件
+            int uniqueCount = group.getFiles().size();
+            List<Path> files = group.getFiles();
+            for (List<Path> part : parts) {
+                uniqueCount -= part.size() - 1;
+                long[] modifiedTimes = new long[part.size()];
+                for (int i = 0; i < modifiedTimes.length; i++)
+                    modifiedTimes[i] = group.getModifiedTime(files.indexOf(part.get(i)));
+                emit(new DuplicateGroup(group.getDigest(), group.getSize(), part, modifiedTimes));
+            }
+            splitCount.addAndGet(uniqueCount - 1);
+        } catch (IOException e) {
+            //无法确认时保留原有的分组
+            emit(group);
+            e.printStackTrace();
+        }
+    }
+
+    private void emit(DuplicateGroup group) {
+        if (failure.get() != null) return;
+        reclaimableBytes.addAndGet(group.getReclaimableBytes());
+        try {
+            listener.onGroup(group);
+        } catch (RuntimeException e) {
+            //listener无法保存结果（如报告或索引写入失败）时停止扫描，不能返回看似完整的结果
+            fail(e);
+        }
+    }
+
+    private static class SizeGroup {
+
+        private final long size;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicBoolean confirmed = new AtomicBoolean();
+        private int[] digestGroups = new int[0];
+
+        public SizeGroup(long size) {
+            this.size = size;
+        }
+
+        public void begin() {
+            running.incrementAndGet();
+        }
+
+        //返回是否已没有在途任务
+        public boolean end() {
+            return running.decrementAndGet() == 0;
+        }
+
+        public boolean isIdle() {
+            return running.get() == 0;
+        }
+
+        //只有第一次调用返回true
+        public boolean confirm() {
+            return confirmed.compareAndSet(false, true);
+        }
+
+        public synchronized void addDigestGroup(int group) {
+            for (int digestGroup : digestGroups) if (digestGroup == group) return;
+            digestGroups = Arrays.copyOf(digestGroups, digestGroups.length + 1);
+            digestGroups[digestGroups.length - 1] = group;
+        }
+
+        public synchronized int[] getDigestGroups() {
+            return digestGroups;
         }
     }
 
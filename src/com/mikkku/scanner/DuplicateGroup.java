@@ -0,0 +1,63 @@
+package com.mikkku.scanner;
+
+import com.mikkku.hash.Hex;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一组内容相同的文件，至少包含两个文件，第一个文件为最先完成哈希的文件。
+ * 同时记录每个文件计算哈希时的修改时间，处理重复文件前可据此判断文件是否已被修改。
+ */
+public class DuplicateGroup {
+
+    private final byte[] digest;
+    private final long size;
+    private final List<Path> files;
+    private final long[] modifiedTimes;
+
+    public DuplicateGroup(byte[] digest, long size, List<Path> files, long[] modifiedTimes) {
+        if (files.size() < 2)
+            throw new IllegalArgumentException("The group must contain at least two files!");
+        if (modifiedTimes.length != files.size())
+            throw new IllegalArgumentException("The modified times must match the files!");
+        this.digest = digest.clone();
+        this.size = size;
+        this.files = Collections.unmodifiableList(files);
+        this.modifiedTimes = modifiedTimes.clone();
+    }
+
+    public byte[] getDigest() {
+        return digest.clone();
+    }
+
+    public String getHash() {
+        return Hex.encode(digest);
+    }
+
+    //每个文件的大小
+    public long getSize() {
+        return size;
+    }
+
+    public List<Path> getFiles() {
+        return files;
+    }
+
+    //第index个文件计算哈希时的修改时间（毫秒）
+    public long getModifiedTime(int index) {
+        return modifiedTimes[index];
+    }
+
+    //只保留一个文件时可以释放的字节数
+    public long getReclaimableBytes() {
+        return size * (files.size() - 1);
+    }
+
+    @Override
+    public String toString() {
+        return getHash() + " " + size + " " + files;
+    }
+
+}
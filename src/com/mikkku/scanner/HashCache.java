@@ -0,0 +1,140 @@
+package com.mikkku.scanner;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 持久化的哈希缓存：以追加日志的形式记录每个文件的摘要及其大小、修改时间和文件标识，
+ * 再次扫描时只有新增或发生变化的文件才需要重新计算摘要。
+ */
+public class HashCache implements Closeable {
+
+    private static final int MAGIC = 0x4D484331;
+    private static final int INIT_CAPACITY = 1 << 8;
+
+    private final File file;
+    private final String algorithm;
+    private final String[] roots;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>(INIT_CAPACITY);
+    private DataOutputStream out;
+
+    public HashCache(File file, String algorithm, File... roots) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.algorithm = algorithm;
+        this.roots = new String[roots.length];
+        for (int i = 0; i < roots.length; i++) this.roots[i] = roots[i].getAbsolutePath();
+        //缓存不存在、已损坏或算法不一致时重新建立
+        if (!load()) compact(false);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file, true)));
+    }
+
+    public byte[] get(String path, long size, long lastModified, String fileKey) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified || !entry.fileKey.equals(fileKey))
+            return null;
+        entry.visited = true;
+        return entry.digest;
+    }
+
+    public void put(String path, long size, long lastModified, String fileKey, byte[] digest) throws IOException {
+        Entry entry = new Entry(size, lastModified, fileKey, digest);
+        entry.visited = true;
+        entries.put(path, entry);
+        synchronized (this) {
+            if (out == null)
+                throw new IOException("The hash cache is closed");
+            write(out, path, entry);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out == null) return;
+        out.close();
+        out = null;
+        compact(true);
+    }
+
+    private boolean load() throws IOException {
+        if (!file.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(algorithm)) return false;
+            while (true) {
+                String path;
+                try {
+                    path = in.readUTF();
+                } catch (EOFException e) {
+                    return true;
+                }
+                long size = in.readLong(), lastModified = in.readLong();
+                String fileKey = in.readUTF();
+                byte[] digest = new byte[in.readUnsignedShort()];
+                in.readFully(digest);
+                entries.put(path, new Entry(size, lastModified, fileKey, digest));
+            }
+        } catch (EOFException e) {
+            //最后一条记录写入不完整，丢弃后重写日志
+            return false;
+        } catch (IOException | RuntimeException e) {
+            //日志已损坏（如名称编码错误），已读出的记录也不可信，丢弃整个缓存后重新建立
+            entries.clear();
+            System.err.println("哈希缓存已损坏，重新建立：" + file);
+            return false;
+        }
+    }
+
+    /**
+     * 只保留每个路径最新的记录，prune为true时删除扫描范围内本次未访问到且已不存在的路径。
+     * 大小唯一、指纹唯一或被过滤掉的文件本次不会读取缓存，但下次扫描仍可能用到，只要文件还在就保留。
+     */
+    private void compact(boolean prune) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            tmpOut.writeInt(MAGIC);
+            tmpOut.writeUTF(algorithm);
+            for (Map.Entry<String, Entry> entry : entries.entrySet())
+                if (!prune || entry.getValue().visited || !inRoots(entry.getKey()) || new File(entry.getKey()).exists())
+                    write(tmpOut, entry.getKey(), entry.getValue());
+                else
+                    entries.remove(entry.getKey());
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean inRoots(String path) {
+        for (String root : roots)
+            if (path.startsWith(root) && (path.length() == root.length() || path.charAt(root.length()) == File.separatorChar))
+                return true;
+        return false;
+    }
+
+    private static void write(DataOutputStream out, String path, Entry entry) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(entry.size);
+        out.writeLong(entry.lastModified);
+        out.writeUTF(entry.fileKey);
+        out.writeShort(entry.digest.length);
+        out.write(entry.digest);
+    }
+
+    private static class Entry {
+
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private final byte[] digest;
+        private volatile boolean visited;
+
+        public Entry(long size, long lastModified, String fileKey, byte[] digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.digest = Arrays.copyOf(digest, digest.length);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.mikkku.scanner;
+
+import com.mikkku.hash.HashEngine;
+import com.mikkku.hash.Hasher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 大文件树哈希：按固定大小分块并行计算每块摘要，再对所有分块摘要计算一次根摘要。
+ * 结果与整文件的摘要不同，只能在同样使用树哈希的文件之间比较。
+ */
+public class LargeFileHasher {
+
+    public static final long CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private final HashEngine engine;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Hasher> chunkHasher;
+
+    public LargeFileHasher(HashEngine engine, int parallelism) {
+        this.engine = engine;
+        pool = new ForkJoinPool(parallelism);
+        chunkHasher = ThreadLocal.withInitial(engine::newHasher);
+    }
+
+    public byte[] hash(Path file, long size) throws IOException {
+        Hasher rootHasher = engine.newHasher();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<ForkJoinTask<byte[]>> tasks = new ArrayList<>((int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE));
+            for (long position = 0; position < size; position += CHUNK_SIZE) {
+                long begin = position, end = Math.min(size, position + CHUNK_SIZE);
+                tasks.add(pool.submit(() -> hashChunk(channel, begin, end)));
+            }
+            //按分块顺序合并，保证根摘要与调度顺序无关
+            for (ForkJoinTask<byte[]> task : tasks) rootHasher.update(task.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The hashing of " + file + " is interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+        return rootHasher.digest();
+    }
+
+    private byte[] hashChunk(FileChannel channel, long begin, long end) throws IOException {
+        //每个工作线程复用同一个摘要对象，上一次异常中断时残留的数据先清除
+        Hasher hasher = chunkHasher.get();
+        hasher.reset();
+        ByteBuffer buffer = BUFFER.get();
+        long position = begin;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) buffer.limit((int) (end - position));
+            int len = channel.read(buffer, position);
+            if (len < 0)
+                throw new IOException("The file is truncated while hashing");
+            buffer.flip();
+            hasher.update(buffer);
+            position += len;
+        }
+        return hasher.digest();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.mikkku.scanner;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 并行遍历：每个目录作为一个任务提交到工作窃取线程池，宽目录树的列目录操作可以随核心数或网络文件系统的并发请求数扩展。
+ * operate会被多个线程同时调用，子类需要自行保证线程安全。
+ */
+public abstract class ParallelFileScanner implements Scanner<Path> {
+
+    private final ForkJoinPool pool;
+    private final LongAdder directoryCount = new LongAdder();
+    private final LongAdder walkNanos = new LongAdder();
+
+    public ParallelFileScanner(int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("The parallelism must is positive integer!");
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    protected abstract void operate(Path path, BasicFileAttributes attributes);
+
+    //返回true时不遍历该目录，如从检查点恢复时已遍历完的子目录
+    protected boolean skip(Path dir) {
+        return false;
+    }
+
+    //dir及其所有子目录中的文件都已交给operate
+    protected void completed(Path dir) {
+    }
+
+    @Override
+    public void scan(Path path) throws IOException {
+        walk(path, true);
+    }
+
+    public void scanFiles(Path path) throws IOException {
+        walk(path, false);
+    }
+
+    public long getDirectoryCount() {
+        return directoryCount.sum();
+    }
+
+    //每秒遍历的目录数
+    public double getDirectoryRate() {
+        long nanos = walkNanos.sum();
+        return nanos == 0 ? 0 : directoryCount.sum() * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void walk(Path path, boolean withDirs) throws IOException {
+        if (Files.notExists(path))
+            throw new FileNotFoundException("The file or directory abstract pathname is not exists");
+        path = path.toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        long begin = System.nanoTime();
+        if (attributes.isDirectory())
+            pool.invoke(new DirectoryTask(null, path, attributes, withDirs));
+        else if (withDirs || attributes.isRegularFile())
+            operate(path, attributes);
+        walkNanos.add(System.nanoTime() - begin);
+    }
+
+    //子目录任务只fork不join，全部子任务完成后由最后一个完成者回调onCompletion，不会因目录过深而递归过深
+    private class DirectoryTask extends CountedCompleter<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        //ForkJoinTask实现了Serializable，但任务只在本进程内执行，从不序列化
+        private final transient Path dir;
+        private final transient BasicFileAttributes attributes;
+        private final boolean withDirs;
+
+        public DirectoryTask(DirectoryTask parent, Path dir, BasicFileAttributes attributes, boolean withDirs) {
+            super(parent);
+            this.dir = dir;
+            this.attributes = attributes;
+            this.withDirs = withDirs;
+        }
+
+        @Override
+        public void compute() {
+            if (skip(dir)) {
+                tryComplete();
+                return;
+            }
+            directoryCount.increment();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path path : stream) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        addToPendingCount(1);
+                        new DirectoryTask(this, path, attributes, withDirs).fork();
+                    } else if (withDirs || attributes.isRegularFile())
+                        operate(path, attributes);
+                }
+            } catch (IOException | DirectoryIteratorException ignore) {
+                //无权限或遍历期间被删除的目录直接跳过
+            }
+            tryComplete();
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            completed(dir);
+            if (withDirs) operate(dir, attributes);
+        }
+    }
+
+}
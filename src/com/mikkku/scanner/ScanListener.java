@@ -0,0 +1,13 @@
+package com.mikkku.scanner;
+
+/**
+ * 接收扫描过程中确认的重复组。某一大小的所有文件都处理完后立即通知该大小的重复组，
+ * 不必等待整个扫描结束，因此链接、删除、生成报告等操作可以与扫描同时进行。
+ * 回调在流水线线程中执行，可能被多个线程同时调用，耗时的操作应交给其他线程。
+ */
+@FunctionalInterface
+public interface ScanListener {
+
+    void onGroup(DuplicateGroup group);
+
+}
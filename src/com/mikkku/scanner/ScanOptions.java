@@ -0,0 +1,336 @@
+package com.mikkku.scanner;
+
+import com.mikkku.hash.HashEngine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ScanOptions {
+
+    private static final int PREFILTER_SIZE = 8 * 1024;
+    private static final int SAMPLE_COUNT = 2;
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    private final String algorithm;
+    private String prefilterAlgorithm = HashEngine.XXHASH64;
+    private int prefilterSize = PREFILTER_SIZE;
+    private int sampleCount = SAMPLE_COUNT;
+    private File cacheFile;
+    private int walkParallelism = PROCESSORS;
+    private int ioThreads = PROCESSORS;
+    private int cpuThreads = PROCESSORS;
+    private int queueCapacity = PROCESSORS * 2;
+    private int maxOpenFiles;
+    private boolean verify;
+    private final List<String> includes = new ArrayList<>();
+    private final List<String> excludes = new ArrayList<>();
+    private long minSize;
+    private long maxSize = Long.MAX_VALUE;
+    private long metricsInterval;
+    private boolean jmx;
+    private int chunkSize = CHUNK_SIZE;
+    private boolean deviceScheduling;
+    private File checkpointFile;
+    private long checkpointInterval = 30;
+    private boolean resume;
+    private int rotationalThreads = 2;
+    private int networkThreads = PROCESSORS * 4;
+    private int shard;
+    private int shardCount = 1;
+
+    public ScanOptions(String algorithm) {
+        if (algorithm == null)
+            throw new NullPointerException("The algorithm must not be null!");
+        this.algorithm = algorithm;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getPrefilterAlgorithm() {
+        return prefilterAlgorithm;
+    }
+
+    //抽样指纹使用的哈希算法，名称规则与HashEngine.of相同
+    public ScanOptions prefilterAlgorithm(String prefilterAlgorithm) {
+        if (prefilterAlgorithm == null)
+            throw new NullPointerException("The prefilter algorithm must not be null!");
+        this.prefilterAlgorithm = prefilterAlgorithm;
+        return this;
+    }
+
+    public int getPrefilterSize() {
+        return prefilterSize;
+    }
+
+    //文件头、文件尾及每个抽样块读取的字节数
+    public ScanOptions prefilterSize(int prefilterSize) {
+        if (prefilterSize <= 0)
+            throw new IllegalArgumentException("The prefilter size must is positive integer!");
+        this.prefilterSize = prefilterSize;
+        return this;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    //文件中间均匀抽样的数据块个数
+    public ScanOptions sampleCount(int sampleCount) {
+        if (sampleCount < 0)
+            throw new IllegalArgumentException("The sample count must not be negative!");
+        this.sampleCount = sampleCount;
+        return this;
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    //哈希缓存文件，为null时不使用缓存
+    public ScanOptions cacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+        return this;
+    }
+
+    public int getWalkParallelism() {
+        return walkParallelism;
+    }
+
+    //并行遍历目录的线程数，网络文件系统上可以设置为远大于核心数的值
+    public ScanOptions walkParallelism(int walkParallelism) {
+        if (walkParallelism <= 0)
+            throw new IllegalArgumentException("The walk parallelism must is positive integer!");
+        this.walkParallelism = walkParallelism;
+        return this;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    //读取文件的线程数，机械硬盘宜设为1~2，固态硬盘可设为核心数，网络文件系统可设为远大于核心数的值
+    public ScanOptions ioThreads(int ioThreads) {
+        if (ioThreads <= 0)
+            throw new IllegalArgumentException("The IO threads must is positive integer!");
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    public int getCpuThreads() {
+        return cpuThreads;
+    }
+
+    //计算摘要的线程数
+    public ScanOptions cpuThreads(int cpuThreads) {
+        if (cpuThreads <= 0)
+            throw new IllegalArgumentException("The CPU threads must is positive integer!");
+        this.cpuThreads = cpuThreads;
+        return this;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    //每个阶段的队列容量，队列满时上一阶段阻塞等待
+    public ScanOptions queueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("The queue capacity must is positive integer!");
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    //大于0时每个读取任务使用独立的虚拟线程（JDK 21以下为平台线程），并限制同时打开的文件数，适用于高延迟的网络文件系统
+    public ScanOptions virtualThreads(int maxOpenFiles) {
+        if (maxOpenFiles < 0)
+            throw new IllegalArgumentException("The max open files must not be negative!");
+        this.maxOpenFiles = maxOpenFiles;
+        return this;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
+    //摘要相同的文件再逐字节比较确认，使用非加密哈希作为完整哈希时建议开启
+    public ScanOptions verify(boolean verify) {
+        this.verify = verify;
+        return this;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    //只扫描匹配任一glob的文件，不含路径分隔符的glob匹配文件名，否则匹配绝对路径
+    public ScanOptions include(String... globs) {
+        includes.addAll(Arrays.asList(globs));
+        return this;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    //跳过匹配任一glob的文件，规则与include相同，优先于include
+    public ScanOptions exclude(String... globs) {
+        excludes.addAll(Arrays.asList(globs));
+        return this;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    //跳过小于minSize字节的文件
+    public ScanOptions minSize(long minSize) {
+        if (minSize < 0)
+            throw new IllegalArgumentException("The min size must not be negative!");
+        this.minSize = minSize;
+        return this;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    //跳过大于maxSize字节的文件
+    public ScanOptions maxSize(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("The max size must not be negative!");
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public long getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    //大于0时每隔metricsInterval秒向标准错误输出各阶段的吞吐量、延迟和队列深度
+    public ScanOptions metricsInterval(long metricsInterval) {
+        if (metricsInterval < 0)
+            throw new IllegalArgumentException("The metrics interval must not be negative!");
+        this.metricsInterval = metricsInterval;
+        return this;
+    }
+
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    //扫描期间把指标注册为JMX MBean
+    public ScanOptions jmx(boolean jmx) {
+        this.jmx = jmx;
+        return this;
+    }
+
+    public boolean isDeviceScheduling() {
+        return deviceScheduling;
+    }
+
+    //按文件所在的设备分别限制读取的并发数，每个设备的文件按inode编号顺序读取，不同设备上的目录互不影响
+    //机械硬盘使用rotationalThreads，网络文件系统使用networkThreads，其余使用ioThreads，设置virtualThreads时不生效
+    public ScanOptions deviceScheduling(boolean deviceScheduling) {
+        this.deviceScheduling = deviceScheduling;
+        return this;
+    }
+
+    public int getRotationalThreads() {
+        return rotationalThreads;
+    }
+
+    public ScanOptions rotationalThreads(int rotationalThreads) {
+        if (rotationalThreads <= 0)
+            throw new IllegalArgumentException("The rotational threads must is positive integer!");
+        this.rotationalThreads = rotationalThreads;
+        return this;
+    }
+
+    public int getNetworkThreads() {
+        return networkThreads;
+    }
+
+    public ScanOptions networkThreads(int networkThreads) {
+        if (networkThreads <= 0)
+            throw new IllegalArgumentException("The network threads must is positive integer!");
+        this.networkThreads = networkThreads;
+        return this;
+    }
+
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    //检查点文件，为null时不记录检查点，扫描正常结束后删除
+    public ScanOptions checkpoint(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+        return this;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    //每隔checkpointInterval秒把检查点刷新到磁盘
+    public ScanOptions checkpointInterval(long checkpointInterval) {
+        if (checkpointInterval <= 0)
+            throw new IllegalArgumentException("The checkpoint interval must is positive integer!");
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    //检查点文件存在时从中恢复，跳过已遍历完的子目录和已算出摘要的文件
+    public ScanOptions resume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * 只处理大小的哈希值除以shardCount余shard的文件。大小相同的文件总在同一分片，各分片的重复组互不相交，
+     * 因此每个分片都可以独立地按大小和抽样指纹排除文件，多个进程各自扫描全部目录、只读取自己的分片。
+     */
+    public ScanOptions shard(int shard, int shardCount) {
+        if (shardCount <= 0)
+            throw new IllegalArgumentException("The shard count must is positive integer!");
+        if (shard < 0 || shard >= shardCount)
+            throw new IllegalArgumentException("The shard must be between 0 and " + (shardCount - 1) + "!");
+        this.shard = shard;
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    //块级查重的平均数据块长度，必须是2的幂，越小能发现的相同内容越多，但索引占用的内存也越多
+    public ScanOptions chunkSize(int chunkSize) {
+        if (chunkSize < 64 || chunkSize > MAX_CHUNK_SIZE || Integer.bitCount(chunkSize) != 1)
+            throw new IllegalArgumentException("The chunk size must be a power of 2 between 64 and " + MAX_CHUNK_SIZE + "!");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.mikkku.scanner;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 扫描的统计结果。通过ScanListener接收重复组时不保留重复组，getGroups返回空列表。
+ */
+public class ScanResult {
+
+    private final int uniqueCount;
+    private final int repeatCount;
+    private final int failCount;
+    private final long reclaimableBytes;
+    private final List<DuplicateGroup> groups;
+
+    public ScanResult(int uniqueCount, int repeatCount, int failCount, long reclaimableBytes, List<DuplicateGroup> groups) {
+        this.uniqueCount = uniqueCount;
+        this.repeatCount = repeatCount;
+        this.failCount = failCount;
+        this.reclaimableBytes = reclaimableBytes;
+        this.groups = Collections.unmodifiableList(groups);
+    }
+
+    //未重复的文件数，每个重复组中的第一个文件也计入其中
+    public int getUniqueCount() {
+        return uniqueCount;
+    }
+
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    public int getFailCount() {
+        return failCount;
+    }
+
+    public int getFileCount() {
+        return uniqueCount + repeatCount + failCount;
+    }
+
+    //每个重复组只保留一个文件时可以释放的字节数
+    public long getReclaimableBytes() {
+        return reclaimableBytes;
+    }
+
+    public List<DuplicateGroup> getGroups() {
+        return groups;
+    }
+
+}
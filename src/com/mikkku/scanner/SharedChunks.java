@@ -0,0 +1,47 @@
+package com.mikkku.scanner;
+
+import java.nio.file.Path;
+
+/**
+ * 两个文件之间相同的数据块：second中的数据块已在first中出现过，每个数据块只归属于最先出现它的文件，
+ * 因此同一数据块出现在三个文件中时只报告它们与所属文件之间的两对。first与second相同时表示文件内部重复的数据块。
+ */
+public class SharedChunks {
+
+    private final Path first;
+    private final Path second;
+    private final long sharedBytes;
+    private final long reclaimableBytes;
+
+    public SharedChunks(Path first, Path second, long sharedBytes, long reclaimableBytes) {
+        this.first = first;
+        this.second = second;
+        this.sharedBytes = sharedBytes;
+        this.reclaimableBytes = reclaimableBytes;
+    }
+
+    //数据块的所属文件
+    public Path getFirst() {
+        return first;
+    }
+
+    public Path getSecond() {
+        return second;
+    }
+
+    //两个文件共有的不同数据块的总字节数
+    public long getSharedBytes() {
+        return sharedBytes;
+    }
+
+    //块级去重时second可以释放的字节数，second中多次出现的数据块每次都计入
+    public long getReclaimableBytes() {
+        return reclaimableBytes;
+    }
+
+    @Override
+    public String toString() {
+        return sharedBytes + " " + reclaimableBytes + " " + first + " " + second;
+    }
+
+}
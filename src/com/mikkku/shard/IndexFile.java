@@ -0,0 +1,182 @@
+package com.mikkku.shard;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 分片索引文件：文件头依次为魔数、摘要算法、摘要长度、分片编号和分片总数，之后是按（大小，摘要，路径）升序排列的记录，
+ * 每条记录依次为文件大小、摘要、修改时间和路径，最后以结束标记收尾，缺少结束标记说明文件不完整。
+ * 记录有序，多个索引文件只需顺序读取即可多路归并。
+ */
+public final class IndexFile {
+
+    private static final int MAGIC = 0x4D494458;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private IndexFile() {
+    }
+
+    public static class Entry implements Comparable<Entry> {
+
+        private final long size;
+        private final byte[] digest;
+        private final long modifiedTime;
+        private final String path;
+
+        //digest不复制，同一重复组的记录共用一个数组
+        public Entry(long size, byte[] digest, long modifiedTime, String path) {
+            this.size = size;
+            this.digest = digest;
+            this.modifiedTime = modifiedTime;
+            this.path = path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public byte[] getDigest() {
+            return digest.clone();
+        }
+
+        public long getModifiedTime() {
+            return modifiedTime;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        //大小和摘要都相同，即内容相同
+        public boolean sameContent(Entry other) {
+            return size == other.size && Arrays.equals(digest, other.digest);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (size != other.size) return Long.compare(size, other.size);
+            for (int i = 0; i < digest.length && i < other.digest.length; i++)
+                if (digest[i] != other.digest[i]) return Integer.compare(digest[i] & 0xFF, other.digest[i] & 0xFF);
+            if (digest.length != other.digest.length) return Integer.compare(digest.length, other.digest.length);
+            return path.compareTo(other.path);
+        }
+
+        @Override
+        public String toString() {
+            return size + " " + path;
+        }
+    }
+
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final int digestLength;
+        private Entry last;
+
+        public Writer(Path file, String algorithm, int digestLength, int shard, int shardCount) throws IOException {
+            this.digestLength = digestLength;
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeUTF(algorithm);
+            out.writeShort(digestLength);
+            out.writeInt(shard);
+            out.writeInt(shardCount);
+        }
+
+        public void write(Entry entry) throws IOException {
+            if (entry.digest.length != digestLength)
+                throw new IllegalArgumentException("The digest length must is " + digestLength + "!");
+            if (last != null && last.compareTo(entry) > 0)
+                throw new IllegalStateException("The entries must be written in order!");
+            out.writeBoolean(true);
+            out.writeLong(entry.size);
+            out.write(entry.digest);
+            out.writeLong(entry.modifiedTime);
+            out.writeUTF(entry.path);
+            last = entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.writeBoolean(false);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    public static class Reader implements Closeable {
+
+        private final Path file;
+        private final DataInputStream in;
+        private final String algorithm;
+        private final int digestLength;
+        private final int shard;
+        private final int shardCount;
+        private boolean end;
+
+        public Reader(Path file) throws IOException {
+            this.file = file;
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+            try {
+                if (in.readInt() != MAGIC) throw new IOException("The file \"" + file + "\" is not an index file");
+                algorithm = in.readUTF();
+                digestLength = in.readUnsignedShort();
+                shard = in.readInt();
+                shardCount = in.readInt();
+            } catch (IOException e) {
+                in.close();
+                if (e instanceof EOFException)
+                    throw new IOException("The file \"" + file + "\" is not an index file", e);
+                throw e;
+            }
+        }
+
+        //已读完时返回null
+        public Entry next() throws IOException {
+            if (end) return null;
+            try {
+                if (!in.readBoolean()) {
+                    end = true;
+                    return null;
+                }
+                long size = in.readLong();
+                byte[] digest = new byte[digestLength];
+                in.readFully(digest);
+                long modifiedTime = in.readLong();
+                return new Entry(size, digest, modifiedTime, in.readUTF());
+            } catch (EOFException e) {
+                throw new IOException("The index file \"" + file + "\" is incomplete", e);
+            }
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public int getDigestLength() {
+            return digestLength;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+
+        public int getShardCount() {
+            return shardCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
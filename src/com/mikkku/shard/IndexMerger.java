@@ -0,0 +1,175 @@
+package com.mikkku.shard;
+
+import com.mikkku.scanner.DuplicateGroup;
+import com.mikkku.scanner.ScanListener;
+import com.mikkku.scanner.ScanResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 多路归并若干分片索引：每个索引文件同时只读取一条记录，用优先队列按（大小，摘要，路径）取出最小的记录，
+ * 大小和摘要相同的连续记录即为一个重复组。内存占用只与索引文件数和最大的重复组有关，与记录总数无关。
+ */
+public class IndexMerger implements Closeable {
+
+    private final List<IndexFile.Reader> readers = new ArrayList<>();
+    private final PriorityQueue<Source> queue;
+    private final String algorithm;
+    private int digestLength;
+
+    //检查索引文件的算法一致，且分片齐全、没有重复
+    public IndexMerger(List<Path> files) throws IOException {
+        this(files, true);
+    }
+
+    IndexMerger(List<Path> files, boolean checkShards) throws IOException {
+        if (files.isEmpty())
+            throw new IllegalArgumentException("The index files must not be empty!");
+        queue = new PriorityQueue<>(files.size());
+        try {
+            for (Path file : files) readers.add(new IndexFile.Reader(file));
+            algorithm = readers.get(0).getAlgorithm();
+            int shardCount = readers.get(0).getShardCount();
+            BitSet shards = new BitSet(shardCount);
+            for (IndexFile.Reader reader : readers) {
+                if (!reader.getAlgorithm().equals(algorithm))
+                    throw new IllegalArgumentException("The index file \"" + reader.getFile() + "\" uses "
+                            + reader.getAlgorithm() + " instead of " + algorithm + "!");
+                if (reader.getDigestLength() > 0) {
+                    if (digestLength > 0 && reader.getDigestLength() != digestLength)
+                        throw new IllegalArgumentException("The digest length must is " + digestLength + "!");
+                    digestLength = reader.getDigestLength();
+                }
+                if (!checkShards) continue;
+                if (reader.getShardCount() != shardCount)
+                    throw new IllegalArgumentException("The index file \"" + reader.getFile() + "\" belongs to "
+                            + reader.getShardCount() + " shards instead of " + shardCount + "!");
+                if (shards.get(reader.getShard()))
+                    throw new IllegalArgumentException("The shard " + reader.getShard() + " is duplicated!");
+                shards.set(reader.getShard());
+            }
+            if (checkShards && shards.cardinality() < shardCount)
+                throw new IllegalArgumentException("The shards " + missing(shards, shardCount) + " are missing!");
+            for (IndexFile.Reader reader : readers) {
+                IndexFile.Entry entry = reader.next();
+                if (entry != null) queue.add(new Source(reader, entry));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    //没有任何记录时为0
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    //所有索引中最小的记录，已读完时返回null
+    public IndexFile.Entry next() throws IOException {
+        Source source = queue.poll();
+        if (source == null) return null;
+        IndexFile.Entry entry = source.entry;
+        source.entry = source.reader.next();
+        if (source.entry != null) queue.add(source);
+        return entry;
+    }
+
+    //把所有索引合并写入一个索引，同一路径只保留一条记录
+    public void writeTo(IndexFile.Writer writer) throws IOException {
+        IndexFile.Entry previous = null;
+        for (IndexFile.Entry entry; (entry = next()) != null; previous = entry)
+            if (previous == null || !previous.sameContent(entry) || !previous.getPath().equals(entry.getPath()))
+                writer.write(entry);
+    }
+
+    /**
+     * 按大小和摘要分组，依次通知每个重复组。多个索引包含同一路径时（例如扫描目录有重叠）只计一次。
+     * 索引中只有重复组的文件，返回的未重复数即重复组数，失败数为0。
+     */
+    public ScanResult merge(ScanListener listener) throws IOException {
+        int uniqueCount = 0, repeatCount = 0;
+        long reclaimableBytes = 0;
+        List<IndexFile.Entry> group = new ArrayList<>();
+        for (IndexFile.Entry entry = next(); ; entry = next()) {
+            if (entry != null && !group.isEmpty() && group.get(0).sameContent(entry)) {
+                if (!group.get(group.size() - 1).getPath().equals(entry.getPath())) group.add(entry);
+                continue;
+            }
+            if (group.size() > 1) {
+                DuplicateGroup duplicateGroup = toGroup(group);
+                listener.onGroup(duplicateGroup);
+                uniqueCount++;
+                repeatCount += group.size() - 1;
+                reclaimableBytes += duplicateGroup.getReclaimableBytes();
+            } else if (group.size() == 1) {
+                uniqueCount++;
+            }
+            if (entry == null) break;
+            group.clear();
+            group.add(entry);
+        }
+        return new ScanResult(uniqueCount, repeatCount, 0, reclaimableBytes, Collections.emptyList());
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (IndexFile.Reader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                if (exception == null) exception = e;
+                else exception.addSuppressed(e);
+            }
+        }
+        if (exception != null) throw exception;
+    }
+
+    private static DuplicateGroup toGroup(List<IndexFile.Entry> group) {
+        List<Path> files = new ArrayList<>(group.size());
+        long[] modifiedTimes = new long[group.size()];
+        for (int i = 0; i < group.size(); i++) {
+            files.add(Paths.get(group.get(i).getPath()));
+            modifiedTimes[i] = group.get(i).getModifiedTime();
+        }
+        IndexFile.Entry first = group.get(0);
+        return new DuplicateGroup(first.getDigest(), first.getSize(), files, modifiedTimes);
+    }
+
+    private static String missing(BitSet shards, int shardCount) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = shards.nextClearBit(0); i < shardCount; i = shards.nextClearBit(i + 1))
+            builder.append(builder.length() == 0 ? "" : ",").append(i);
+        return builder.toString();
+    }
+
+    private static class Source implements Comparable<Source> {
+
+        private final IndexFile.Reader reader;
+        private IndexFile.Entry entry;
+
+        Source(IndexFile.Reader reader, IndexFile.Entry entry) {
+            this.reader = reader;
+            this.entry = entry;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            return entry.compareTo(other.entry);
+        }
+    }
+
+}
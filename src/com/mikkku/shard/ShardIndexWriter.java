@@ -0,0 +1,96 @@
+package com.mikkku.shard;
+
+import com.mikkku.scanner.DuplicateGroup;
+import com.mikkku.scanner.ScanListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把重复组写入分片索引。记录先在内存中累积，超过RUN_SIZE条时排序后写入索引文件所在目录下的临时有序段，
+ * finish时把所有有序段多路归并为最终的索引文件，内存占用与重复文件的数量无关。
+ * 没有调用finish就关闭时只删除临时有序段，不会留下不完整的索引；写出有序段失败后finish同样拒绝写出索引。
+ */
+public class ShardIndexWriter implements ScanListener, Closeable {
+
+    private static final int RUN_SIZE = 1 << 18;
+
+    private final Path file;
+    private final String algorithm;
+    private final int shard;
+    private final int shardCount;
+    private final List<IndexFile.Entry> entries = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private int digestLength;
+    private IOException failure;
+
+    public ShardIndexWriter(Path file, String algorithm, int shard, int shardCount) {
+        if (shardCount <= 0)
+            throw new IllegalArgumentException("The shard count must is positive integer!");
+        if (shard < 0 || shard >= shardCount)
+            throw new IllegalArgumentException("The shard must be between 0 and " + (shardCount - 1) + "!");
+        this.file = file.toAbsolutePath();
+        this.algorithm = algorithm;
+        this.shard = shard;
+        this.shardCount = shardCount;
+    }
+
+    @Override
+    public synchronized void onGroup(DuplicateGroup group) {
+        if (failure != null) throw new UncheckedIOException(failure);
+        byte[] digest = group.getDigest();
+        digestLength = digest.length;
+        List<Path> files = group.getFiles();
+        for (int i = 0; i < files.size(); i++)
+            entries.add(new IndexFile.Entry(group.getSize(), digest, group.getModifiedTime(i), files.get(i).toString()));
+        if (entries.size() < RUN_SIZE) return;
+        try {
+            Path run = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".run");
+            runs.add(run);
+            write(run);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //写出最终的索引文件
+    public synchronized void finish() throws IOException {
+        if (failure != null) throw failure;
+        if (runs.isEmpty()) {
+            write(file);
+            return;
+        }
+        if (!entries.isEmpty()) {
+            Path run = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".run");
+            runs.add(run);
+            write(run);
+        }
+        try (IndexMerger merger = new IndexMerger(runs, false);
+             IndexFile.Writer writer = new IndexFile.Writer(file, algorithm, digestLength, shard, shardCount)) {
+            merger.writeTo(writer);
+        }
+    }
+
+    //删除临时有序段
+    @Override
+    public synchronized void close() throws IOException {
+        for (Path run : runs) Files.deleteIfExists(run);
+        runs.clear();
+        entries.clear();
+    }
+
+    private void write(Path target) throws IOException {
+        entries.sort(null);
+        try (IndexFile.Writer writer = new IndexFile.Writer(target, algorithm, digestLength, shard, shardCount)) {
+            for (IndexFile.Entry entry : entries) writer.write(entry);
+        }
+        entries.clear();
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.mikkku.test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 简单的基准测试执行器：先预热若干轮让JIT编译完成，再测量若干轮，输出平均耗时、标准差和吞吐量。
+ * 每轮的返回值会累加到一个volatile字段，防止计算被JIT当作无用代码消除。
+ */
+public class BenchmarkRunner {
+
+    public interface Task {
+        //返回本轮处理的字节数，没有字节数意义的测试返回处理的元素个数
+        long run() throws Exception;
+    }
+
+    private final int warmups;
+    private final int iterations;
+    private volatile long sink;
+
+    public BenchmarkRunner(int warmups, int iterations) {
+        if (iterations <= 0)
+            throw new IllegalArgumentException("The iterations must is positive integer!");
+        this.warmups = warmups;
+        this.iterations = iterations;
+    }
+
+    public void consume(long value) {
+        sink += value;
+    }
+
+    //unit为吞吐量的单位名称，divisor为每个单位对应的数量，如MB对应1024*1024
+    public void run(String name, String unit, double divisor, Task task) throws Exception {
+        for (int i = 0; i < warmups; i++) consume(task.run());
+        long[] nanos = new long[iterations];
+        long amount = 0;
+        for (int i = 0; i < iterations; i++) {
+            long begin = System.nanoTime();
+            long result = task.run();
+            nanos[i] = System.nanoTime() - begin;
+            amount += result;
+            consume(result);
+        }
+        double mean = Arrays.stream(nanos).average().orElse(0);
+        double variance = Arrays.stream(nanos).mapToDouble(value -> (value - mean) * (value - mean)).sum() / iterations;
+        double seconds = Arrays.stream(nanos).sum() / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("%-36s %10.2f ms ± %8.2f %12.1f %s/s%n", name, mean / 1e6, Math.sqrt(variance) / 1e6,
+                amount / divisor / seconds, unit);
+    }
+
+}
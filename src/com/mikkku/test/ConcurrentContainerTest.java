@@ -1,257 +1,283 @@
 package com.mikkku.test;
 
 
-import com.mikkku.concurrent.ConcurrentArray;
+import com.mikkku.concurrent.RingBuffer;
+import com.mikkku.concurrent.WaitStrategy;
+import com.mikkku.metrics.LatencyHistogram;
 
-import java.lang.reflect.Field;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
-
+import java.util.function.IntFunction;
+
+/**
+ * 生产者/消费者交接容器的基准测试：每个元素为入队时的System.nanoTime()，消费者出队时记录交接延迟，
+ * 输出吞吐量和延迟分布。非阻塞容器的等待方采用先自旋、再让出、最后短暂休眠的退避策略，不会一直空转占满CPU。
+ * 用法：ConcurrentContainerTest [生产者:消费者,...] [容量] [每个生产者的元素数] [测量轮数]
+ * 例如：ConcurrentContainerTest 3:9,6:6,9:3 1024 1000000 3，系统属性bench.containers可指定只测试部分容器（逗号分隔）。
+ */
 public class ConcurrentContainerTest {
 
-    static final int CAPACITY = 1;
-    static final int THREADS = 12;
-    static final int OFFSET = 0;
-    static final int NUMS = 10000;
-
-    volatile boolean adding = true;
+    //结束标记，每个消费者收到一个后退出
+    private static final Long POISON = Long.MIN_VALUE;
+    private static final int SPINS = 100;
+    private static final int YIELDS = 10;
 
-    static final ReentrantLock lock = new ReentrantLock();
+    interface HandOff {
 
-    static List<Integer> vector = new Vector<>(CAPACITY);
-    static List<Integer> lockList = new ArrayList<>(CAPACITY);
-    static List<Integer> synchronizeList = new ArrayList<>(CAPACITY);
-    static List<Integer> copyOnWriteArrayList = new CopyOnWriteArrayList<>();
-    static Map<Integer, Integer> concurrentHashMap = new ConcurrentHashMap<>(CAPACITY);
-    static ConcurrentArray<Integer> concurrentArray = new ConcurrentArray<>(NUMS * THREADS * 2);
-    static BlockingQueue<Integer> arrayBlockingQueue = new ArrayBlockingQueue<>(Integer.MAX_VALUE / 2);
-    static BlockingQueue<Integer> linkedBlockingQueue = new LinkedBlockingQueue<>();
+        boolean offer(Long element);
 
+        Long poll();
 
-    static Object getRes(String property) throws NoSuchFieldException, IllegalAccessException {
-        Class<ConcurrentContainerTest> concurrentCollTestClass = ConcurrentContainerTest.class;
-        char firstChar = Character.toLowerCase(property.charAt(0));
-        String substring = property.substring(1);
-        Field declaredField = concurrentCollTestClass.getDeclaredField(firstChar + substring);
-        return declaredField.get(null);
-    }
-
-    void setVector() {
-        for (int i = 0; i < NUMS; i++) {
-            vector.add(i);
-        }
-    }
-
-    void getVector() {
-        while (adding || vector.size() != 0) {
-            try {
-                vector.remove(0);
-            } catch (Exception ignore) {
-
-            }
+        default void put(Long element) throws InterruptedException {
+            for (int idle = 0; !offer(element); idle++) backoff(idle);
         }
-    }
 
-    void setLockList() {
-        for (int i = 0; i < NUMS; i++) {
-            try {
-                lock.lock();
-                lockList.add(i);
-            } finally {
-                lock.unlock();
-            }
+        default Long take() throws InterruptedException {
+            Long element;
+            for (int idle = 0; (element = poll()) == null; idle++) backoff(idle);
+            return element;
         }
     }
 
-    void getLockList() {
-        while (adding || lockList.size() != 0) {
-            try {
-                lock.lock();
-                if (lockList.size() != 0)
-                    lockList.remove(0);
-            } finally {
-                lock.unlock();
-            }
-        }
+    static void backoff(int idle) throws InterruptedException {
+        if (idle < SPINS) return;
+        if (idle < SPINS + YIELDS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(10_000);
+        if (Thread.interrupted()) throw new InterruptedException();
     }
 
-    void setSynchronizeList() {
-        for (int i = 0; i < NUMS; i++) {
-            synchronized (ConcurrentContainerTest.class) {
-                synchronizeList.add(i);
-            }
-        }
-    }
+    //按名称创建容量为capacity的交接容器
+    static final Map<String, IntFunction<HandOff>> CONTAINERS = new LinkedHashMap<>();
+
+    static {
+        CONTAINERS.put("Vector", capacity -> {
+            Vector<Long> vector = new Vector<>(capacity);
+            return new HandOff() {
+                @Override
+                public boolean offer(Long element) {
+                    synchronized (vector) {
+                        return vector.size() < capacity && vector.add(element);
+                    }
+                }
 
-    void getSynchronizeList() {
-        while (adding || synchronizeList.size() != 0) {
-            synchronized (this) {
-                if (synchronizeList.size() != 0)
-                    synchronizeList.remove(0);
-            }
-        }
-    }
+                @Override
+                public Long poll() {
+                    synchronized (vector) {
+                        return vector.isEmpty() ? null : vector.remove(0);
+                    }
+                }
+            };
+        });
+        CONTAINERS.put("LockList", capacity -> {
+            List<Long> list = new ArrayList<>(capacity);
+            ReentrantLock lock = new ReentrantLock();
+            return new HandOff() {
+                @Override
+                public boolean offer(Long element) {
+                    lock.lock();
+                    try {
+                        return list.size() < capacity && list.add(element);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
 
-    void setCopyOnWriteArrayList() {
-        for (int i = 0; i < NUMS; i++) {
-            copyOnWriteArrayList.add(i);
-        }
-    }
+                @Override
+                public Long poll() {
+                    lock.lock();
+                    try {
+                        return list.isEmpty() ? null : list.remove(0);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            };
+        });
+        CONTAINERS.put("SynchronizeList", capacity -> {
+            List<Long> list = new ArrayList<>(capacity);
+            return new HandOff() {
+                @Override
+                public synchronized boolean offer(Long element) {
+                    return list.size() < capacity && list.add(element);
+                }
 
-    void getCopyOnWriteArrayList() {
-        while (adding || copyOnWriteArrayList.size() != 0) {
-            lock.lock();
-            try {
-                if (copyOnWriteArrayList.size() != 0)
-                    copyOnWriteArrayList.remove(0);
-            } finally {
-                lock.unlock();
-            }
+                @Override
+                public synchronized Long poll() {
+                    return list.isEmpty() ? null : list.remove(0);
+                }
+            };
+        });
+        CONTAINERS.put("CopyOnWriteArrayList", capacity -> {
+            List<Long> list = new CopyOnWriteArrayList<>();
+            ReentrantLock lock = new ReentrantLock();
+            return new HandOff() {
+                @Override
+                public boolean offer(Long element) {
+                    lock.lock();
+                    try {
+                        return list.size() < capacity && list.add(element);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
 
-        }
-    }
+                @Override
+                public Long poll() {
+                    lock.lock();
+                    try {
+                        return list.isEmpty() ? null : list.remove(0);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            };
+        });
+        CONTAINERS.put("ConcurrentArray", capacity -> {
+            @SuppressWarnings("deprecation")
+            com.mikkku.concurrent.ConcurrentArray<Long> array = new com.mikkku.concurrent.ConcurrentArray<>(capacity);
+            Semaphore slots = new Semaphore(capacity);
+            return new HandOff() {
+                //ConcurrentArray满时会一直空转，先获取空位再放入
+                @Override
+                public boolean offer(Long element) {
+                    if (!slots.tryAcquire()) return false;
+                    array.input(element);
+                    return true;
+                }
 
-    void setConcurrentHashMap() {
-        int hash = Thread.currentThread().hashCode();
-        for (int i = 0; i < NUMS; i++) {
-            concurrentHashMap.put(hash + i, 0);
-        }
+                @Override
+                public Long poll() {
+                    Long element = array.output();
+                    if (element != null) slots.release();
+                    return element;
+                }
+            };
+        });
+        CONTAINERS.put("ConcurrentLinkedQueue", capacity -> queue(new ConcurrentLinkedQueue<>(), capacity));
+        CONTAINERS.put("ArrayBlockingQueue", capacity -> blockingQueue(new ArrayBlockingQueue<>(capacity)));
+        CONTAINERS.put("LinkedBlockingQueue", capacity -> blockingQueue(new LinkedBlockingQueue<>(capacity)));
+        CONTAINERS.put("RingBuffer(spin)", capacity -> blockingQueue(new RingBuffer<>(capacity, WaitStrategy::spinThenPark)));
+        CONTAINERS.put("RingBuffer(blocking)", capacity -> blockingQueue(new RingBuffer<>(capacity, WaitStrategy::blocking)));
     }
 
-    void setConcurrentArray() throws InterruptedException {
-        for (int i = 0; i < NUMS; i++) {
-            concurrentArray.input(i);
-        }
-    }
+    //无界队列用计数限制容量
+    static HandOff queue(Queue<Long> queue, int capacity) {
+        Semaphore slots = new Semaphore(capacity);
+        return new HandOff() {
+            @Override
+            public boolean offer(Long element) {
+                if (!slots.tryAcquire()) return false;
+                queue.offer(element);
+                return true;
+            }
 
-    void getConcurrentArray() {
-        while (adding || concurrentArray.size() != 0) {
-            concurrentArray.output();
-        }
+            @Override
+            public Long poll() {
+                Long element = queue.poll();
+                if (element != null) slots.release();
+                return element;
+            }
+        };
     }
 
-    void setArrayBlockingQueue() {
-        for (int i = 0; i < NUMS; i++) {
-            arrayBlockingQueue.add(i);
-        }
-    }
+    //阻塞队列使用自身的put/take等待
+    static HandOff blockingQueue(BlockingQueue<Long> queue) {
+        return new HandOff() {
+            @Override
+            public boolean offer(Long element) {
+                return queue.offer(element);
+            }
 
-    void getArrayBlockingQueue() {
-        while (adding || arrayBlockingQueue.size() != 0) {
-            arrayBlockingQueue.poll();
-        }
-    }
+            @Override
+            public Long poll() {
+                return queue.poll();
+            }
 
-    void setLinkedBlockingQueue() {
-        for (int i = 0; i < NUMS; i++) {
-            linkedBlockingQueue.add(i);
-        }
-    }
+            @Override
+            public void put(Long element) throws InterruptedException {
+                queue.put(element);
+            }
 
-    void getLinkedBlockingQueue() {
-        while (adding || linkedBlockingQueue.size() != 0) {
-            linkedBlockingQueue.poll();
-        }
+            @Override
+            public Long take() throws InterruptedException {
+                return queue.take();
+            }
+        };
     }
 
-    public static void main(String[] args) {
-
-        ConcurrentContainerTest test = new ConcurrentContainerTest();
-        CountDownLatch addLatch = new CountDownLatch(THREADS / 2 - OFFSET);
-        CountDownLatch removeLatch = new CountDownLatch(THREADS / 2 + OFFSET);
-
-        long l = System.currentTimeMillis();
-        for (int i = 0; i < THREADS / 2 - OFFSET; i++) {
-            new Thread(() -> {
+    //执行一轮，返回耗时（纳秒），延迟记录到histogram
+    static long run(HandOff handOff, int producers, int consumers, int elements, LatencyHistogram histogram)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch produced = new CountDownLatch(producers);
+        CountDownLatch consumed = new CountDownLatch(consumers);
+        List<Thread> threads = new ArrayList<>(producers + consumers);
+        for (int i = 0; i < producers; i++)
+            threads.add(new Thread(() -> {
                 try {
-                    test.setConcurrentArray();
+                    start.await();
+                    for (int j = 0; j < elements; j++) handOff.put(System.nanoTime());
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Thread.currentThread().interrupt();
                 } finally {
-                    addLatch.countDown();
+                    produced.countDown();
                 }
-            }).start();
-        }
-        for (int i = 0; i < THREADS / 2 + OFFSET; i++) {
-            new Thread(() -> {
+            }, "producer-" + i));
+        for (int i = 0; i < consumers; i++)
+            threads.add(new Thread(() -> {
+                LatencyHistogram local = new LatencyHistogram();
                 try {
-                    test.getConcurrentArray();
+                    start.await();
+                    for (Long element; (element = handOff.take()) != POISON; )
+                        local.record(System.nanoTime() - element);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 } finally {
-                    removeLatch.countDown();
+                    histogram.add(local);
+                    consumed.countDown();
                 }
-            }).start();
-        }
-        try {
-            addLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        test.adding = false;
-        try {
-            removeLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        long l1 = System.currentTimeMillis();
-        System.out.println("time: " + (l1 - l) + "ms");
-
-        //only add                  Time(ms)    THREADS = 12 NUMS = 1000000
-
-        //Vector                    2700
-        //LockList*                 2200
-        //SynchronizeList           2300
-        //CopyOnWriteArrayList      2700                     10000
-        //ConcurrentHashMap         4000
-        //ArrayBlockingQueue        5300
-        //LinkedBlockingQueue       13000
-        //ConcurrentArray           6000
-
-        //ArrayBlockingQueue        70          10           100000
-        //ArrayBlockingQueue        2800        50           10000
-        //ArrayBlockingQueue        4600        100          10000
-
-        //LinkedBlockingQueue       90          10           100000
-        //LinkedBlockingQueue       2800        50           10000
-        //LinkedBlockingQueue       2800        100          10000
-
-
-        //add and remove            Time(ms)    THREADS NUMS = 50000
-        //Vector                    2200        3|9
-        //Vector                    4500        6|6
-        //Vector                    9900        9|3
-        //LockList                  75          3|9
-        //LockList                  150         6|6
-        //LockList                  660         9|3
-        //SynchronizeList           2000        3|9
-        //SynchronizeList           4200        6|6
-        //SynchronizeList           9500        9|3
-        //CopyOnWriteArrayList      2700        3|9
-        //CopyOnWriteArrayList      3400        6|6
-        //CopyOnWriteArrayList      68000       9|3
-        //ArrayBlockingQueue        80          3|9
-        //ArrayBlockingQueue        70          6|6
-        //ArrayBlockingQueue        80          9|3
-        //LinkedBlockingQueue       90          3|9
-        //LinkedBlockingQueue       100         6|6
-        //LinkedBlockingQueue       120         9|3
-
-        //LockList                  2800        3|9     1000000
-        //LockList                  6000        6|6     1000000
-        //LockList                  16000       9|3     1000000
-        //LockList                  30000       25|25   1000000
-
-        //ArrayBlockingQueue        2800        3|9     1000000
-        //ArrayBlockingQueue        2800        6|6     1000000
-        //ArrayBlockingQueue        4600        9|3     1000000
-        //ArrayBlockingQueue        7100        25|25   1000000
-
-        //LinkedBlockingQueue       3000        3|9     1000000
-        //LinkedBlockingQueue       3400        6|6     1000000
-        //LinkedBlockingQueue       3800        9|3     1000000
-        //LinkedBlockingQueue       6000        25|25   1000000
-
+            }, "consumer-" + i));
+        for (Thread thread : threads) thread.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        produced.await();
+        for (int i = 0; i < consumers; i++) handOff.put(POISON);
+        consumed.await();
+        return System.nanoTime() - begin;
     }
 
+    public static void main(String[] args) throws InterruptedException {
+        String[] ratios = (args.length > 0 ? args[0] : "3:9,6:6,9:3").split(",");
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int elements = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        Set<String> names = new LinkedHashSet<>(CONTAINERS.keySet());
+        String selected = System.getProperty("bench.containers");
+        if (selected != null) names.retainAll(Arrays.asList(selected.split(",")));
+        System.out.printf("容量=%d 每个生产者的元素数=%d 测量轮数=%d%n", capacity, elements, iterations);
+        System.out.printf("%-24s %7s %12s %10s %10s %10s%n", "容器", "生产:消费", "Mops/s", "p50(us)", "p99(us)", "max(us)");
+        for (String ratio : ratios) {
+            String[] counts = ratio.split(":");
+            int producers = Integer.parseInt(counts[0].trim()), consumers = Integer.parseInt(counts[1].trim());
+            for (String name : names) {
+                IntFunction<HandOff> factory = CONTAINERS.get(name);
+                //预热一轮，让JIT编译完成
+                run(factory.apply(capacity), producers, consumers, elements, new LatencyHistogram());
+                LatencyHistogram histogram = new LatencyHistogram();
+                long nanos = 0;
+                for (int i = 0; i < iterations; i++)
+                    nanos += run(factory.apply(capacity), producers, consumers, elements, histogram);
+                double throughput = (double) producers * elements * iterations / nanos * 1000;
+                System.out.printf("%-24s %7s %12.2f %10d %10d %10d%n", name, ratio, throughput,
+                        TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(50)),
+                        TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(99)),
+                        TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+            }
+        }
+    }
 
 }
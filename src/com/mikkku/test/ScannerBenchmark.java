@@ -0,0 +1,173 @@
+package com.mikkku.test;
+
+import com.mikkku.hash.HashEngine;
+import com.mikkku.hash.Hasher;
+import com.mikkku.scanner.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 扫描各阶段的基准测试：遍历（FileScanner、单线程和多线程的ParallelFileScanner）、
+ * 读取方式（流、通道、内存映射）、摘要算法，以及DuplicateFileScanner的端到端吞吐量。
+ * 用法：ScannerBenchmark <目录> [文件数] [最小字节数] [最大字节数] [重复比例]，目录不存在时先生成目录树。
+ * 读取测试在预热后测量的是页缓存中的数据，测量冷缓存需要在每轮之前清空系统缓存。
+ * 预热和测量轮数可以通过系统属性bench.warmups和bench.iterations设置。
+ */
+public class ScannerBenchmark {
+
+    private static final double MEGABYTE = 1024 * 1024;
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final String[] ALGORITHMS = {HashEngine.XXHASH64, HashEngine.CRC32C, "MD5", "SHA-1", "SHA-256"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法：ScannerBenchmark <目录> [文件数] [最小字节数] [最大字节数] [重复比例]");
+            System.exit(1);
+        }
+        Path root = Paths.get(args[0]).toAbsolutePath();
+        if (Files.notExists(root)) {
+            SyntheticTree tree = new SyntheticTree();
+            if (args.length > 1) tree.fileCount(Integer.parseInt(args[1]));
+            if (args.length > 3) tree.sizes(Long.parseLong(args[2]), Long.parseLong(args[3]));
+            if (args.length > 4) tree.duplicateRatio(Double.parseDouble(args[4]));
+            long begin = System.currentTimeMillis();
+            long bytes = tree.generate(root);
+            System.out.printf("生成目录树：%.1fMB，用时%dms%n", bytes / MEGABYTE, System.currentTimeMillis() - begin);
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(Files::isRegularFile).forEach(files::add);
+        }
+        BenchmarkRunner runner = new BenchmarkRunner(Integer.getInteger("bench.warmups", 2),
+                Integer.getInteger("bench.iterations", 5));
+        traversal(runner, root);
+        read(runner, files);
+        digest(runner);
+        endToEnd(runner, root);
+    }
+
+    private static void traversal(BenchmarkRunner runner, Path root) throws Exception {
+        System.out.println("== 遍历（文件/秒）");
+        runner.run("FileScanner", "files", 1, () -> {
+            LongAdder count = new LongAdder();
+            new FileScanner() {
+                @Override
+                protected void operate(File file) {
+                    count.increment();
+                }
+            }.scanFiles(root.toFile());
+            return count.sum();
+        });
+        runner.run("ParallelFileScanner（单线程）", "files", 1, () -> walk(root, 1));
+        runner.run("ParallelFileScanner", "files", 1, () -> walk(root, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static long walk(Path root, int parallelism) throws IOException {
+        LongAdder count = new LongAdder();
+        ParallelFileScanner scanner = new ParallelFileScanner(parallelism) {
+            @Override
+            protected void operate(Path path, BasicFileAttributes attributes) {
+                count.increment();
+            }
+        };
+        scanner.scanFiles(root);
+        scanner.shutdown();
+        return count.sum();
+    }
+
+    private static void read(BenchmarkRunner runner, List<Path> files) throws Exception {
+        System.out.println("== 读取（MB/秒）");
+        runner.run("InputStream", "MB", MEGABYTE, () -> {
+            byte[] buffer = new byte[BLOCK_SIZE];
+            long bytes = 0;
+            for (Path file : files)
+                try (InputStream in = Files.newInputStream(file)) {
+                    for (int len; (len = in.read(buffer)) != -1; ) {
+                        bytes += len;
+                        runner.consume(buffer[len - 1]);
+                    }
+                }
+            return bytes;
+        });
+        runner.run("FileChannel（直接缓冲区）", "MB", MEGABYTE, () -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            long bytes = 0;
+            for (Path file : files)
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    for (int len; (len = channel.read(buffer)) != -1; buffer.clear()) {
+                        bytes += len;
+                        if (len > 0) runner.consume(buffer.get(len - 1));
+                    }
+                }
+            return bytes;
+        });
+        runner.run("MappedByteBuffer", "MB", MEGABYTE, () -> {
+            long bytes = 0;
+            for (Path file : files)
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                        long length = Math.min(Integer.MAX_VALUE, size - position);
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                        //每页读取一个字节，触发缺页把数据读入内存
+                        long sum = 0;
+                        for (int i = 0; i < length; i += 4096) sum += buffer.get(i);
+                        runner.consume(sum);
+                        bytes += length;
+                    }
+                }
+            return bytes;
+        });
+    }
+
+    private static void digest(BenchmarkRunner runner) throws Exception {
+        System.out.println("== 摘要（MB/秒，单线程，内存中64MB数据）");
+        ByteBuffer data = ByteBuffer.allocateDirect(64 * 1024 * 1024);
+        byte[] bytes = new byte[BLOCK_SIZE];
+        new Random(42).nextBytes(bytes);
+        while (data.hasRemaining()) data.put(bytes, 0, Math.min(bytes.length, data.remaining()));
+        for (String algorithm : ALGORITHMS) {
+            Hasher hasher = HashEngine.of(algorithm).newHasher();
+            runner.run(algorithm, "MB", MEGABYTE, () -> {
+                //按块更新，与扫描时的调用方式相同
+                for (int position = 0; position < data.capacity(); position += BLOCK_SIZE) {
+                    ByteBuffer block = data.duplicate();
+                    block.position(position).limit(Math.min(position + BLOCK_SIZE, data.capacity()));
+                    hasher.update(block);
+                }
+                runner.consume(hasher.digest()[0]);
+                return data.capacity();
+            });
+        }
+    }
+
+    private static void endToEnd(BenchmarkRunner runner, Path root) throws Exception {
+        System.out.println("== 端到端（文件/秒）");
+        for (String algorithm : new String[]{"MD5", HashEngine.XXHASH64})
+            runner.run("DuplicateFileScanner " + algorithm, "files", 1, () -> scan(new ScanOptions(algorithm), root));
+        runner.run("DuplicateFileScanner MD5 verify", "files", 1, () -> scan(new ScanOptions("MD5").verify(true), root));
+    }
+
+    private static long scan(ScanOptions options, Path root) throws IOException {
+        try (DuplicateFileScanner scanner = new DuplicateFileScanner(options, root.toFile())) {
+            return scanner.scan(group -> {
+            }).getFileCount();
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.mikkku.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 生成用于基准测试的目录树：文件大小在[minSize, maxSize]内按对数均匀分布（小文件多、大文件少），
+ * 按duplicateRatio的比例复制已生成的文件作为重复文件，相同的种子总是生成相同的目录树。
+ */
+public class SyntheticTree {
+
+    private int fileCount = 10000;
+    private int fanout = 16;
+    private int filesPerDirectory = 64;
+    private long minSize = 1024;
+    private long maxSize = 16 * 1024 * 1024;
+    private double duplicateRatio = 0.1;
+    private long seed = 42;
+
+    public SyntheticTree fileCount(int fileCount) {
+        this.fileCount = fileCount;
+        return this;
+    }
+
+    //每个目录的子目录数
+    public SyntheticTree fanout(int fanout) {
+        this.fanout = fanout;
+        return this;
+    }
+
+    public SyntheticTree filesPerDirectory(int filesPerDirectory) {
+        this.filesPerDirectory = filesPerDirectory;
+        return this;
+    }
+
+    public SyntheticTree sizes(long minSize, long maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public SyntheticTree duplicateRatio(double duplicateRatio) {
+        this.duplicateRatio = duplicateRatio;
+        return this;
+    }
+
+    public SyntheticTree seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    //返回生成的总字节数
+    public long generate(Path root) throws IOException {
+        Random random = new Random(seed);
+        List<Path> files = new ArrayList<>(fileCount);
+        byte[] buffer = new byte[64 * 1024];
+        long bytes = 0;
+        for (int i = 0; i < fileCount; i++) {
+            Path dir = directory(root, i / filesPerDirectory);
+            Files.createDirectories(dir);
+            Path file = dir.resolve("f" + i + ".bin");
+            if (!files.isEmpty() && random.nextDouble() < duplicateRatio) {
+                Files.copy(files.get(random.nextInt(files.size())), file);
+            } else {
+                double exponent = Math.log(minSize) + random.nextDouble() * (Math.log(maxSize) - Math.log(minSize));
+                long size = (long) Math.exp(exponent);
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    for (long left = size; left > 0; left -= buffer.length) {
+                        random.nextBytes(buffer);
+                        out.write(buffer, 0, (int) Math.min(left, buffer.length));
+                    }
+                }
+            }
+            files.add(file);
+            bytes += Files.size(file);
+        }
+        return bytes;
+    }
+
+    //第index个叶子目录，按fanout展开为多层目录
+    private Path directory(Path root, int index) {
+        StringBuilder builder = new StringBuilder();
+        do {
+            builder.insert(0, "/d" + index % fanout);
+            index /= fanout;
+        } while (index > 0);
+        return root.resolve(builder.substring(1));
+    }
+
+}